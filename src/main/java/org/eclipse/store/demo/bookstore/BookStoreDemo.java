@@ -30,7 +30,9 @@ import javax.money.format.MonetaryFormats;
 import org.eclipse.serializer.persistence.binary.jdk8.types.BinaryHandlersJDK8;
 import org.eclipse.store.demo.bookstore.data.Data;
 import org.eclipse.store.demo.bookstore.data.DataMetrics;
+import org.eclipse.store.demo.bookstore.data.PausableHousekeepingController;
 import org.eclipse.store.demo.bookstore.data.RandomDataAmount;
+import org.eclipse.store.demo.bookstore.data.RandomDataGenerator;
 import org.eclipse.store.storage.embedded.configuration.types.EmbeddedStorageConfiguration;
 import org.eclipse.store.storage.embedded.types.EmbeddedStorageFoundation;
 import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
@@ -54,6 +56,8 @@ import org.springframework.boot.SpringApplication;
  */
 public final class BookStoreDemo implements HasLogger
 {
+	private final static String STORAGE_DIRECTORY = "data/storage";
+
 	private static BookStoreDemo instance;
 
 	/**
@@ -130,17 +134,39 @@ public final class BookStoreDemo implements HasLogger
 
 
 	private final    RandomDataAmount       initialDataAmount;
+	private final    long                   initialDataSeed  ;
 	private volatile EmbeddedStorageManager storageManager   ;
 
 	/**
 	 * Creates a new demo instance.
+	 * <p>
+	 * The seed for the random data is read from the system property <code>bookstore.data.seed</code>,
+	 * it defaults to {@link RandomDataGenerator#DEFAULT_SEED}.
 	 *
 	 * @param initialDataAmount the amount of data which should be generated if the database is empty
 	 */
 	public BookStoreDemo(final RandomDataAmount initialDataAmount)
+	{
+		this(
+			initialDataAmount,
+			Long.getLong("bookstore.data.seed", RandomDataGenerator.DEFAULT_SEED)
+		);
+	}
+
+	/**
+	 * Creates a new demo instance.
+	 *
+	 * @param initialDataAmount the amount of data which should be generated if the database is empty
+	 * @param initialDataSeed the seed for the random data, the same amount and seed always produce the same data
+	 */
+	public BookStoreDemo(
+		final RandomDataAmount initialDataAmount,
+		final long             initialDataSeed
+	)
 	{
 		super();
 		this.initialDataAmount = initialDataAmount;
+		this.initialDataSeed   = initialDataSeed  ;
 		BookStoreDemo.instance = this;
 	}
 
@@ -174,13 +200,16 @@ public final class BookStoreDemo implements HasLogger
 
 	/**
 	 * Creates an {@link EmbeddedStorageManager} and initializes random {@link Data} if empty.
+	 * <p>
+	 * Storages created by older versions of this demo can't be migrated, since the data types changed incompatibly.
+	 * They are rejected with a hint to delete the storage directory, so that new random data is generated.
 	 */
 	private EmbeddedStorageManager createStorageManager()
 	{
 		this.logger().info("Initializing EclipseStore StorageManager");
 		
 		final EmbeddedStorageFoundation<?> foundation = EmbeddedStorageConfiguration.Builder()
-			.setStorageDirectory("data/storage")
+			.setStorageDirectory(STORAGE_DIRECTORY)
 			.setChannelCount(Math.max(
 				1, // minimum one channel, if only 1 core is available
 				Integer.highestOneBit(Runtime.getRuntime().availableProcessors() - 1)
@@ -188,7 +217,33 @@ public final class BookStoreDemo implements HasLogger
 			.createEmbeddedStorageFoundation();
 
 		foundation.onConnectionFoundation(BinaryHandlersJDK8::registerJDK8TypeHandlers);
-		final EmbeddedStorageManager storageManager = foundation.createEmbeddedStorageManager().start();
+		PausableHousekeepingController.install(foundation);
+		final EmbeddedStorageManager storageManager;
+		try
+		{
+			storageManager = foundation.createEmbeddedStorageManager().start();
+		}
+		catch(final RuntimeException e)
+		{
+			throw new IllegalStateException(
+				"The storage in " + STORAGE_DIRECTORY + " cannot be loaded. "
+					+ "If it was created by an older version of this demo, delete the directory to regenerate the data.",
+				e
+			);
+		}
+
+		if(storageManager.root() instanceof Data
+			&& ((Data)storageManager.root()).layoutVersion() != Data.LAYOUT_VERSION
+		)
+		{
+			final int layoutVersion = ((Data)storageManager.root()).layoutVersion();
+			storageManager.shutdown();
+			throw new IllegalStateException(
+				"The storage in " + STORAGE_DIRECTORY + " has the data layout version " + layoutVersion
+					+ ", but version " + Data.LAYOUT_VERSION + " is required. "
+					+ "It was created by an older version of this demo, delete the directory to regenerate the data."
+			);
+		}
 
 		if(storageManager.root() == null)
 		{
@@ -199,6 +254,7 @@ public final class BookStoreDemo implements HasLogger
 			storageManager.storeRoot();
 			final DataMetrics metrics = data.populate(
 				this.initialDataAmount,
+				this.initialDataSeed,
 				storageManager
 			);
 
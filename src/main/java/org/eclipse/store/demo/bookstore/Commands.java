@@ -14,14 +14,27 @@ package org.eclipse.store.demo.bookstore;
  * #L%
  */
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Year;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.store.demo.bookstore.data.Book;
 import org.eclipse.store.demo.bookstore.data.BookSales;
 import org.eclipse.store.demo.bookstore.data.Country;
 import org.eclipse.store.demo.bookstore.data.Data;
+import org.eclipse.store.demo.bookstore.data.DataExport;
+import org.eclipse.store.demo.bookstore.data.DataImport;
 import org.eclipse.store.demo.bookstore.data.Employee;
+import org.eclipse.store.demo.bookstore.data.Shop;
+import org.eclipse.store.demo.bookstore.data.Shops;
+
+import com.google.common.collect.Range;
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -39,6 +52,11 @@ public class Commands
 	{
 		final CommandLine cli = new CommandLine(new Commands());
 		cli.addSubcommand(new Books(bookStoreDemo));
+		cli.addSubcommand(new Countries(bookStoreDemo));
+		cli.addSubcommand(new InventoryResidency(bookStoreDemo));
+		cli.addSubcommand(new Stock(bookStoreDemo));
+		cli.addSubcommand(new Import(bookStoreDemo));
+		cli.addSubcommand(new Export(bookStoreDemo));
 		cli.addSubcommand(new BestSellerList(bookStoreDemo));
 		cli.addSubcommand(new PurchasesOfForeigners(bookStoreDemo));
 		cli.addSubcommand(new EmployeeOfTheYear(bookStoreDemo));
@@ -62,13 +80,7 @@ public class Commands
 
 		Country searchCountry(final String countryCode)
 		{
-			return this.data().shops().compute(shops ->
-				shops.map(s -> s.address().city().state().country())
-					.distinct()
-					.filter(c -> c.code().equalsIgnoreCase(countryCode))
-					.findAny()
-					.orElse(null)
-			);
+			return this.data().countries().ofCode(countryCode);
 		}
 
 	}
@@ -111,6 +123,361 @@ public class Commands
 		}
 	}
 
+	@Command(
+		name = "countries",
+		description = "Prints all countries with their amount of shops and customers.",
+		mixinStandardHelpOptions = true
+	)
+	static class Countries extends Abstract
+	{
+		Countries(final BookStoreDemo bookStoreDemo)
+		{
+			super(bookStoreDemo);
+		}
+
+		@Override
+		public void run()
+		{
+			final org.eclipse.store.demo.bookstore.data.Countries countries = this.data().countries();
+			final List<Country> all = countries.all();
+			if(all.isEmpty())
+			{
+				System.out.println("No countries found");
+			}
+			else
+			{
+				System.out.println(all.size() + " countries found:");
+				all.forEach(country ->
+				{
+					System.out.println(country.code() + " " + country.name() + "; "
+						+ countries.shopCount(country) + " shops, "
+						+ countries.customerCount(country) + " customers"
+					);
+				});
+			}
+		}
+	}
+
+	@Command(
+		name = "inventoryResidency",
+		aliases = {"ir"},
+		description = "Prints the residency metrics of the shop inventories and optionally sets the heap budget.",
+		mixinStandardHelpOptions = true
+	)
+	static class InventoryResidency extends Abstract
+	{
+		@Option(
+			names = {"--budget", "-b"},
+			description = "the new heap budget for all loaded inventories in bytes",
+			required = false,
+			defaultValue = "0"
+		)
+		long budget;
+
+		InventoryResidency(final BookStoreDemo bookStoreDemo)
+		{
+			super(bookStoreDemo);
+		}
+
+		@Override
+		public void run()
+		{
+			final org.eclipse.store.demo.bookstore.data.InventoryResidency residency =
+				org.eclipse.store.demo.bookstore.data.InventoryResidency.get();
+			if(this.budget > 0)
+			{
+				residency.budget(this.budget);
+			}
+			System.out.println(residency.metrics());
+		}
+	}
+
+	@Command(
+		name = "stock",
+		description = "Prints the stock of a book or a shop, or the books with low stock.",
+		mixinStandardHelpOptions = true
+	)
+	static class Stock extends Abstract
+	{
+		@Option(
+			names = {"--isbn", "-i"},
+			description = "the ISBN-13 of the book",
+			required = false,
+			defaultValue = ""
+		)
+		String isbn;
+
+		@Option(
+			names = {"--shop", "-s"},
+			description = "the name of the shop",
+			required = false,
+			defaultValue = ""
+		)
+		String shop;
+
+		@Option(
+			names = {"--threshold", "-t"},
+			description = "the new low stock threshold",
+			required = false,
+			defaultValue = "0"
+		)
+		int    threshold;
+
+		Stock(final BookStoreDemo bookStoreDemo)
+		{
+			super(bookStoreDemo);
+		}
+
+		@Override
+		public void run()
+		{
+			final Shops shops = this.data().shops();
+			if(this.threshold > 0)
+			{
+				shops.lowStockThreshold(this.threshold);
+			}
+
+			if(!this.isbn.isEmpty())
+			{
+				final Book book = this.data().books().ofIsbn13(this.isbn);
+				if(book == null)
+				{
+					System.out.println("Book not found");
+				}
+				else
+				{
+					final List<Shop> lowStock = shops.lowStock(book);
+					System.out.println(shops.totalStock(book) + " copies of " + book.title() + " in stock, "
+						+ lowStock.size() + " shops with less than " + shops.lowStockThreshold() + " copies"
+					);
+					lowStock.forEach(shop ->
+					{
+						System.out.println(shop.inventory().amount(book) + " " + shop.name());
+					});
+				}
+			}
+			else if(!this.shop.isEmpty())
+			{
+				final Shop shop = shops.ofName(this.shop);
+				if(shop == null)
+				{
+					System.out.println("Shop not found");
+				}
+				else
+				{
+					System.out.println(shops.totalStock(shop) + " books in stock in " + shop.name());
+				}
+			}
+			else
+			{
+				final Map<Book, List<Shop>> lowStock = shops.lowStock();
+				if(lowStock.isEmpty())
+				{
+					System.out.println("No books with less than " + shops.lowStockThreshold() + " copies in any shop");
+				}
+				else
+				{
+					System.out.println(lowStock.size() + " books with less than " + shops.lowStockThreshold() + " copies in some shops:");
+					lowStock.entrySet().stream()
+						.sorted((e1, e2) -> Integer.compare(e2.getValue().size(), e1.getValue().size()))
+						.limit(10)
+						.forEach(entry ->
+						{
+							System.out.println(entry.getValue().size() + " shops "
+								+ entry.getKey().title() + "; by "
+								+ entry.getKey().author().name()
+							);
+						});
+				}
+			}
+		}
+	}
+
+	@Command(
+		name = "import",
+		description = "Imports books, shops, inventory, customers or purchases from a CSV or NDJSON file.",
+		mixinStandardHelpOptions = true
+	)
+	static class Import extends Abstract
+	{
+		@Option(
+			names = {"--type", "-t"},
+			description = "the type of the records: books, shops, inventory, customers or purchases",
+			required = true
+		)
+		String type;
+
+		@Option(
+			names = {"--file", "-f"},
+			description = "the file to import",
+			required = true
+		)
+		Path   file;
+
+		@Option(
+			names = {"--format"},
+			description = "the format of the file: csv or ndjson, derived from the file name by default",
+			required = false,
+			defaultValue = ""
+		)
+		String format;
+
+		Import(final BookStoreDemo bookStoreDemo)
+		{
+			super(bookStoreDemo);
+		}
+
+		@Override
+		public void run()
+		{
+			final DataImport.Type   type;
+			final DataImport.Format format;
+			try
+			{
+				type   = DataImport.Type.ofName(this.type);
+				format = this.format.isEmpty()
+					? DataImport.Format.ofFileName(this.file.getFileName().toString())
+					: DataImport.Format.ofName(this.format);
+			}
+			catch(final IllegalArgumentException e)
+			{
+				System.out.println(e.getMessage());
+				return;
+			}
+
+			try(final Reader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8))
+			{
+				final DataImport.Result result = new DataImport(this.data()).run(type, format, reader);
+				System.out.println(result);
+				result.errors().forEach(System.out::println);
+			}
+			catch(final DataImport.FailedException e)
+			{
+				System.out.println(e.getMessage());
+				System.out.println(e.result());
+			}
+			catch(final IOException e)
+			{
+				System.out.println("Cannot read " + this.file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	@Command(
+		name = "export",
+		description = "Exports purchases, books or customers to a CSV, NDJSON or columnar file.",
+		mixinStandardHelpOptions = true
+	)
+	static class Export extends Abstract
+	{
+		@Option(
+			names = {"--type", "-t"},
+			description = "the type of the records: purchases, books or customers",
+			required = true
+		)
+		String type;
+
+		@Option(
+			names = {"--file", "-f"},
+			description = "the file to export to",
+			required = true
+		)
+		Path   file;
+
+		@Option(
+			names = {"--format"},
+			description = "the format of the file: csv, ndjson or columnar, derived from the file name by default",
+			required = false,
+			defaultValue = ""
+		)
+		String format;
+
+		@Option(
+			names = {"--from"},
+			description = "the first year of the exported purchases",
+			required = false,
+			defaultValue = "0"
+		)
+		int    from;
+
+		@Option(
+			names = {"--to"},
+			description = "the last year of the exported purchases",
+			required = false,
+			defaultValue = "0"
+		)
+		int    to;
+
+		@Option(
+			names = {"--country", "-c"},
+			description = "the country code of the shops of the exported purchases",
+			required = false,
+			defaultValue = ""
+		)
+		String countryCode;
+
+		Export(final BookStoreDemo bookStoreDemo)
+		{
+			super(bookStoreDemo);
+		}
+
+		@Override
+		public void run()
+		{
+			final DataExport.Type   type;
+			final DataExport.Format format;
+			try
+			{
+				type   = DataExport.Type.ofName(this.type);
+				format = this.format.isEmpty()
+					? DataExport.Format.ofFileName(this.file.getFileName().toString())
+					: DataExport.Format.ofName(this.format);
+			}
+			catch(final IllegalArgumentException e)
+			{
+				System.out.println(e.getMessage());
+				return;
+			}
+
+			Country country = null;
+			if(!this.countryCode.isEmpty())
+			{
+				country = this.searchCountry(this.countryCode);
+				if(country == null)
+				{
+					System.out.println("Country not found");
+					return;
+				}
+			}
+
+			try(final OutputStream output = Files.newOutputStream(this.file))
+			{
+				final DataExport export = new DataExport(this.data());
+				final DataExport.Result result = type == DataExport.Type.PURCHASES
+					? export.exportPurchases(this.years(), country, format, output)
+					: export.export(type, format, output);
+				System.out.println(result);
+			}
+			catch(final IOException e)
+			{
+				System.out.println("Cannot write " + this.file + ": " + e.getMessage());
+			}
+		}
+
+		private Range<Integer> years()
+		{
+			if(this.from > 0)
+			{
+				return this.to > 0
+					? Range.closed(this.from, this.to)
+					: Range.atLeast(this.from);
+			}
+			return this.to > 0
+				? Range.atMost(this.to)
+				: Range.all();
+		}
+	}
+
 	@Command(
 		name = "bestSellerList",
 		aliases = {"bsl"},
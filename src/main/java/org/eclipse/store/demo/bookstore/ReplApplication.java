@@ -25,7 +25,7 @@ public class ReplApplication
 	public static void main(final String[] args)
 	{
 		final BookStoreDemo bookStoreDemo = new BookStoreDemo(
-			RandomDataAmount.Medium()
+			RandomDataAmount.valueOf(System.getProperty("bookstore.data.amount", "medium"))
 		);
 
 		new Repl(bookStoreDemo).run();
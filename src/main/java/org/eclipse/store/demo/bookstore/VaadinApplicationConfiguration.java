@@ -32,7 +32,9 @@ public class VaadinApplicationConfiguration
 	@Bean(destroyMethod = "shutdown")
 	public BookStoreDemo getBookStoreDemo()
 	{
-		final BookStoreDemo demo = new BookStoreDemo(RandomDataAmount.Medium());
+		final BookStoreDemo demo = new BookStoreDemo(
+			RandomDataAmount.valueOf(System.getProperty("bookstore.data.amount", "medium"))
+		);
 		demo.storageManager(); // eager init
 		return demo;
 	}
@@ -485,6 +485,28 @@ public class Books extends LockScope
 		return index.search(query, Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Searches books by title with a given query and returns a single page of the result, ordered by relevance.
+	 * Only the books up to the end of the requested page are looked up.
+	 *
+	 * @param queryText the search query, see {@link #searchByTitle(String)}
+	 * @param after the cursor of the last book of the previous page, or <code>null</code> for the first page
+	 * @param first the maximum amount of books of the page
+	 * @return a page of books matching the query
+	 */
+	public Page<Book> searchByTitle(
+		final String queryText,
+		final String after    ,
+		final int    first
+	)
+	{
+		final Index<Book>  index        = this.ensureIndex();
+		final QueryBuilder queryBuilder = index.createQueryBuilder();
+		final Query        query        = queryBuilder.createPhraseQuery("title", queryText);
+		final int          offset       = Page.offsetAfter(after);
+		return Page.ofOffset(index.search(query, offset, first + 1), offset, first);
+	}
+
 	/**
 	 * Gets all books written by a specific author.
 	 *
@@ -0,0 +1,163 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.serializer.persistence.types.Storer;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
+import org.eclipse.store.storage.types.StorageHousekeepingController;
+import org.rapidpm.dependencies.core.logger.HasLogger;
+
+/**
+ * Bulk storing of entities during the initial population, used by the {@link RandomDataGenerator}.
+ * <p>
+ * The entities are stored in chunks, each with its own {@link Storer}, by a thread pool
+ * with one thread per storage channel by default. Afterwards they are registered as usual,
+ * e.g. by {@link Books#addAll(java.util.Collection)}, which then only has to store the collections,
+ * since the lazy storer skips the already stored entities.
+ * <p>
+ * The entities aren't reachable from the root until they are registered, so the storage's garbage collection
+ * is paused from bulk storing until the registration is done, see {@link PausableHousekeepingController}.
+ * <p>
+ * The chunk size can be set with the system property <code>bookstore.data.bulkChunkSize</code> (default 10000),
+ * the amount of threads with <code>bookstore.data.bulkThreads</code> (default: storage channel count).
+ * Bulk storing can be disabled with <code>bookstore.data.bulkLoad=false</code>,
+ * then all entities are stored by the registering collections in one go.
+ */
+final class BulkStorer implements HasLogger
+{
+	private final EmbeddedStorageManager storageManager;
+	private final boolean                enabled       ;
+	private final int                    chunkSize     ;
+	private final int                    threads       ;
+
+	BulkStorer(final EmbeddedStorageManager storageManager)
+	{
+		super();
+		this.storageManager = storageManager;
+		this.enabled        = Boolean.parseBoolean(System.getProperty("bookstore.data.bulkLoad", "true"));
+		this.chunkSize      = Math.max(1, Integer.getInteger("bookstore.data.bulkChunkSize", 10_000));
+		this.threads        = Math.max(1, Integer.getInteger(
+			"bookstore.data.bulkThreads",
+			storageManager.configuration().channelCountProvider().getChannelCount()
+		));
+	}
+
+	/**
+	 * Stores the given entities in parallel chunks, registers them and logs the throughput.
+	 * The garbage collection is paused meanwhile, if the storage supports it.
+	 *
+	 * @param label name of the entities for the log
+	 * @param entities the entities to store
+	 * @param registration registers the stored entities, which links them to the root
+	 */
+	void storeAll(
+		final String                 label       ,
+		final List<? extends Object> entities    ,
+		final Runnable               registration
+	)
+	{
+		if(!this.enabled || entities.isEmpty())
+		{
+			registration.run();
+			return;
+		}
+
+		final StorageHousekeepingController  controller   = this.storageManager.configuration().housekeepingController();
+		final PausableHousekeepingController housekeeping = controller instanceof PausableHousekeepingController
+			? (PausableHousekeepingController)controller
+			: null;
+		if(housekeeping != null)
+		{
+			housekeeping.pauseGarbageCollection();
+		}
+		try
+		{
+			this.storeChunks(label, entities);
+			registration.run();
+		}
+		finally
+		{
+			if(housekeeping != null)
+			{
+				housekeeping.resumeGarbageCollection();
+			}
+		}
+	}
+
+	private void storeChunks(
+		final String                 label   ,
+		final List<? extends Object> entities
+	)
+	{
+
+		final long            startBytes = this.storageManager.createStorageStatistics().totalDataLength();
+		final long            start      = System.nanoTime();
+		final ExecutorService executor   = Executors.newFixedThreadPool(this.threads);
+		try
+		{
+			final List<Future<?>> futures = new ArrayList<>();
+			for(int from = 0; from < entities.size(); from += this.chunkSize)
+			{
+				final List<? extends Object> chunk = entities.subList(
+					from,
+					Math.min(from + this.chunkSize, entities.size())
+				);
+				futures.add(executor.submit(() ->
+				{
+					final Storer storer = this.storageManager.createStorer();
+					storer.storeAll(chunk);
+					storer.commit();
+				}));
+			}
+			for(final Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch(final ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		final double seconds = Math.max(1, System.nanoTime() - start) / 1_000_000_000.0;
+		final long   bytes   = this.storageManager.createStorageStatistics().totalDataLength() - startBytes;
+		this.logger().info(String.format(
+			"+ stored %,d %s in %.2f s with %d threads (%,.0f entities/s, %.1f MB/s)",
+			entities.size(),
+			label,
+			seconds,
+			this.threads,
+			entities.size() / seconds,
+			bytes / seconds / (1024 * 1024)
+		));
+	}
+
+}
@@ -0,0 +1,393 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import static java.util.Collections.newSetFromMap;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.eclipse.serializer.concurrency.LockScope;
+import org.eclipse.serializer.persistence.types.PersistenceStoring;
+import org.eclipse.store.demo.bookstore.BookStoreDemo;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
+
+/**
+ * Registry of all countries, states and cities known to this company.
+ * <p>
+ * This type is used to look up {@link Country}s by their code, to navigate their {@link State}s and {@link City}s,
+ * and to get the amount of {@link Shop}s and {@link Customer}s per country without scanning them.
+ * The counts are maintained by {@link Shops} and {@link Customers} when new entities are added.
+ * <p>
+ * All operations on this type are thread safe.
+ *
+ * @see Data#countries()
+ * @see LockScope
+ */
+public class Countries extends LockScope
+{
+	/**
+	 * Registry entry of a single country.
+	 * <p>
+	 * Note that this class doesn't need to handle concurrency in any way,
+	 * since it is only used by the Countries implementation which handles thread safety.
+	 */
+	private static class CountryEntry
+	{
+		final Country                country;
+		final Map<State, List<City>> states = new HashMap<>(64);
+		int                          shopCount;
+		int                          customerCount;
+
+		CountryEntry(final Country country)
+		{
+			super();
+			this.country = country;
+		}
+	}
+
+
+	/**
+	 * Map with the upper case {@link Country#code()} as key.
+	 */
+	private final Map<String, CountryEntry> codeToCountry = new HashMap<>(32);
+
+	public Countries()
+	{
+		super();
+	}
+
+	/**
+	 * Adds a new city, including its state and country, and stores it with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.add(city, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param city the new city
+	 */
+	public void add(final City city)
+	{
+		this.add(city, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Adds a new city, including its state and country, and stores it with the given persister.
+	 * Already registered cities are ignored.
+	 *
+	 * @param city the new city
+	 * @param persister the persister to store it with
+	 * @see #add(City)
+	 */
+	public void add(
+		final City               city     ,
+		final PersistenceStoring persister
+	)
+	{
+		this.addAll(List.of(city), persister);
+	}
+
+	/**
+	 * Adds a range of new cities, including their states and countries, and stores it with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.addAll(cities, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param cities the new cities
+	 */
+	public void addAll(final Collection<? extends City> cities)
+	{
+		this.addAll(cities, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Adds a range of new cities, including their states and countries, and stores it with the given persister.
+	 * Already registered cities are ignored.
+	 *
+	 * @param cities the new cities
+	 * @param persister the persister to store them with
+	 * @see #addAll(Collection)
+	 */
+	public void addAll(
+		final Collection<? extends City> cities   ,
+		final PersistenceStoring         persister
+	)
+	{
+		this.write(() ->
+		{
+			final Set<Object> changedObjects = newSetFromMap(new IdentityHashMap<>());
+			cities.forEach(city -> this.ensureCity(city, changedObjects));
+			this.storeChanges(changedObjects, persister);
+		});
+	}
+
+	/**
+	 * Registers the countries and cities of new shops and increments the shop count of their countries.
+	 * This method is used exclusively by {@link Shops}.
+	 */
+	void shopsAdded(
+		final Collection<? extends Shop> shops    ,
+		final PersistenceStoring         persister
+	)
+	{
+		this.write(() ->
+		{
+			final Set<Object> changedObjects = newSetFromMap(new IdentityHashMap<>());
+			shops.forEach(shop ->
+			{
+				final CountryEntry entry = this.ensureCity(shop.address().city(), changedObjects);
+				entry.shopCount++;
+				changedObjects.add(entry);
+			});
+			this.storeChanges(changedObjects, persister);
+		});
+	}
+
+	/**
+	 * Registers the countries and cities of new customers and increments the customer count of their countries.
+	 * This method is used exclusively by {@link Customers}.
+	 */
+	void customersAdded(
+		final Collection<? extends Customer> customers,
+		final PersistenceStoring             persister
+	)
+	{
+		this.write(() ->
+		{
+			final Set<Object> changedObjects = newSetFromMap(new IdentityHashMap<>());
+			customers.forEach(customer ->
+			{
+				final CountryEntry entry = this.ensureCity(customer.address().city(), changedObjects);
+				entry.customerCount++;
+				changedObjects.add(entry);
+			});
+			this.storeChanges(changedObjects, persister);
+		});
+	}
+
+	/**
+	 * Ensures that the given city, its state and its country are registered.
+	 *
+	 * @param city the city to register
+	 * @param changedObjects collector for all objects which have to be stored
+	 * @return the entry of the city's country
+	 */
+	private CountryEntry ensureCity(
+		final City        city          ,
+		final Set<Object> changedObjects
+	)
+	{
+		final State   state   = city.state();
+		final Country country = state.country();
+
+		CountryEntry entry = this.codeToCountry.get(countryKey(country.code()));
+		if(entry == null)
+		{
+			entry = new CountryEntry(country);
+			this.codeToCountry.put(countryKey(country.code()), entry);
+			changedObjects.add(this.codeToCountry);
+		}
+
+		List<City> cities = entry.states.get(state);
+		if(cities == null)
+		{
+			cities = new ArrayList<>(64);
+			entry.states.put(state, cities);
+			changedObjects.add(entry.states);
+		}
+		if(!cities.contains(city))
+		{
+			cities.add(city);
+			changedObjects.add(cities);
+		}
+
+		return entry;
+	}
+
+	private void storeChanges(
+		final Set<Object>        changedObjects,
+		final PersistenceStoring persister
+	)
+	{
+		if(persister != null && changedObjects.size() > 0)
+		{
+			persister.storeAll(changedObjects);
+		}
+	}
+
+	private static String countryKey(final String countryCode)
+	{
+		return countryCode.toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Gets the total amount of all countries.
+	 *
+	 * @return the amount of countries
+	 */
+	public int countryCount()
+	{
+		return this.read(
+			this.codeToCountry::size
+		);
+	}
+
+	/**
+	 * Gets all countries as a sorted {@link List}.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @return all countries
+	 */
+	public List<Country> all()
+	{
+		return this.compute(countries ->
+			countries
+				.sorted()
+				.collect(toList())
+		);
+	}
+
+	/**
+	 * Executes a function with a {@link Stream} of {@link Country}s and returns the computed value.
+	 *
+	 * @param <T> the return type
+	 * @param streamFunction computing function
+	 * @return the computed result
+	 */
+	public <T> T compute(final Function<Stream<Country>, T> streamFunction)
+	{
+		return this.read(() ->
+			streamFunction.apply(
+				this.codeToCountry.values().stream().map(entry -> entry.country)
+			)
+		);
+	}
+
+	/**
+	 * Gets the country with a specific ISO 3166 alpha-2 code or <code>null</code> if none was found.
+	 * The code is matched case-insensitive.
+	 *
+	 * @param countryCode the country code to search by
+	 * @return the matching country or <code>null</code>
+	 */
+	public Country ofCode(final String countryCode)
+	{
+		return this.read(() ->
+		{
+			final CountryEntry entry = this.codeToCountry.get(countryKey(countryCode));
+			return entry != null
+				? entry.country
+				: null;
+		});
+	}
+
+	/**
+	 * Gets all states of a specific country as a sorted {@link List}.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @param country the country to search for
+	 * @return a list of states
+	 */
+	public List<State> states(final Country country)
+	{
+		return this.read(() ->
+		{
+			final CountryEntry entry = this.codeToCountry.get(countryKey(country.code()));
+			return entry != null
+				? entry.states.keySet().stream().sorted().collect(toList())
+				: new ArrayList<>();
+		});
+	}
+
+	/**
+	 * Gets all cities of a specific state as a sorted {@link List}.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @param state the state to search for
+	 * @return a list of cities
+	 */
+	public List<City> cities(final State state)
+	{
+		return this.read(() ->
+		{
+			final CountryEntry entry = this.codeToCountry.get(countryKey(state.country().code()));
+			final List<City>   list  = entry != null
+				? entry.states.get(state)
+				: null;
+			return list != null
+				? list.stream().sorted().collect(toList())
+				: new ArrayList<>();
+		});
+	}
+
+	/**
+	 * Gets all cities of a specific country as a sorted {@link List}.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @param country the country to search for
+	 * @return a list of cities
+	 */
+	public List<City> cities(final Country country)
+	{
+		return this.read(() ->
+		{
+			final CountryEntry entry = this.codeToCountry.get(countryKey(country.code()));
+			return entry != null
+				? entry.states.values().stream().flatMap(List::stream).sorted().collect(toList())
+				: new ArrayList<>();
+		});
+	}
+
+	/**
+	 * Gets the amount of shops operated in a specific country.
+	 *
+	 * @param country the country
+	 * @return the amount of shops
+	 */
+	public int shopCount(final Country country)
+	{
+		return this.read(() ->
+		{
+			final CountryEntry entry = this.codeToCountry.get(countryKey(country.code()));
+			return entry != null
+				? entry.shopCount
+				: 0;
+		});
+	}
+
+	/**
+	 * Gets the amount of customers living in a specific country.
+	 *
+	 * @param country the country
+	 * @return the amount of customers
+	 */
+	public int customerCount(final Country country)
+	{
+		return this.read(() ->
+		{
+			final CountryEntry entry = this.codeToCountry.get(countryKey(country.code()));
+			return entry != null
+				? entry.customerCount
+				: 0;
+		});
+	}
+
+}
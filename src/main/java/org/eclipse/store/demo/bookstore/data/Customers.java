@@ -14,17 +14,26 @@ package org.eclipse.store.demo.bookstore.data;
  * #L%
  */
 
+import static java.util.Collections.newSetFromMap;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.eclipse.store.demo.bookstore.util.LazyUtils.clearIfStored;
+
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.eclipse.serializer.concurrency.LockScope;
 import org.eclipse.serializer.persistence.types.PersistenceStoring;
+import org.eclipse.serializer.reference.Lazy;
 import org.eclipse.store.demo.bookstore.BookStoreDemo;
 import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
 
@@ -33,6 +42,10 @@ import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
  * <p>
  * This type is used to read and write the {@link Customer}s.
  * <p>
+ * The customers are partitioned into segments by ranges of their {@link Customer#customerId()}.
+ * Each segment is held by a {@link Lazy} reference, so adding a customer only stores its own segment,
+ * and segments which are not in use can be cleared to free memory.
+ * <p>
  * All operations on this type are thread safe.
  *
  * @see Data#customers()
@@ -41,13 +54,30 @@ import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
 public class Customers extends LockScope
 {
 	/**
-	 * Map with {@link Customer#customerId()} as key
+	 * Amount of consecutive customer ids which share a segment.
+	 */
+	private final static int SEGMENT_SIZE = 1024;
+
+	/**
+	 * Map with the segment index as key, see {@link #segmentIndex(int)}.
+	 * The segments are maps with {@link Customer#customerId()} as key.
+	 */
+	private final Map<Integer, Lazy<Map<Integer, Customer>>> segments = new HashMap<>();
+
+	/**
+	 * Total amount of customers, held separately to avoid loading all segments.
+	 */
+	private int customerCount;
+
+	/**
+	 * Country registry which is notified about new customers.
 	 */
-	private final Map<Integer, Customer> customers = new HashMap<>();
+	private final Countries countries;
 
-	public Customers()
+	public Customers(final Countries countries)
 	{
 		super();
+		this.countries = countries;
 	}
 	
 	/**
@@ -75,8 +105,12 @@ public class Customers extends LockScope
 	)
 	{
 		this.write(() -> {
-			this.customers.put(customer.customerId(), customer);
-			persister.store(this.customers);
+			final Set<Object>    changedObjects = newSetFromMap(new IdentityHashMap<>());
+			final List<Customer> newCustomers   = new ArrayList<>();
+			this.addToSegment(segmentIndex(customer.customerId()), List.of(customer), changedObjects, newCustomers);
+			changedObjects.add(this);
+			persister.storeAll(changedObjects);
+			this.countries.customersAdded(newCustomers, persister);
 		});
 	}
 
@@ -105,15 +139,64 @@ public class Customers extends LockScope
 	)
 	{
 		this.write(() -> {
-			this.customers.putAll(
-				customers.stream().collect(
-					Collectors.toMap(Customer::customerId, Function.identity())
-				)
-			);
-			persister.store(this.customers);
+			final Set<Object>    changedObjects = newSetFromMap(new IdentityHashMap<>());
+			final List<Customer> newCustomers   = new ArrayList<>(customers.size());
+			customers.stream()
+				.collect(groupingBy(customer -> segmentIndex(customer.customerId())))
+				.forEach((segmentIndex, segmentCustomers) ->
+					this.addToSegment(segmentIndex, segmentCustomers, changedObjects, newCustomers)
+				);
+			changedObjects.add(this);
+			persister.storeAll(changedObjects);
+			this.countries.customersAdded(newCustomers, persister);
 		});
 	}
 
+	/**
+	 * Adds customers to the segment with the given index.
+	 * If no segment is present for the given index, it will be created.
+	 *
+	 * @param segmentIndex the segment's index
+	 * @param customers the customers to add
+	 * @param changedObjects collector for all objects which have to be stored
+	 * @param newCustomers collector for all customers which were not registered before
+	 */
+	private void addToSegment(
+		final Integer                        segmentIndex  ,
+		final Collection<? extends Customer> customers     ,
+		final Set<Object>                    changedObjects,
+		final List<Customer>                 newCustomers
+	)
+	{
+		final Lazy<Map<Integer, Customer>> lazy = this.segments.get(segmentIndex);
+		final Map<Integer, Customer>       segment;
+		if(lazy == null)
+		{
+			segment = new HashMap<>(SEGMENT_SIZE * 4 / 3 + 1);
+			this.segments.put(segmentIndex, Lazy.Reference(segment));
+			changedObjects.add(this.segments);
+		}
+		else
+		{
+			segment = lazy.get();
+			changedObjects.add(segment);
+		}
+
+		for(final Customer customer : customers)
+		{
+			if(segment.put(customer.customerId(), customer) == null)
+			{
+				this.customerCount++;
+				newCustomers.add(customer);
+			}
+		}
+	}
+
+	private static Integer segmentIndex(final int customerId)
+	{
+		return customerId / SEGMENT_SIZE;
+	}
+
 	/**
 	 * Gets the total amount of all customers.
 	 *
@@ -121,8 +204,8 @@ public class Customers extends LockScope
 	 */
 	public synchronized int customerCount()
 	{
-		return this.read(
-			this.customers::size
+		return this.read(() ->
+			this.customerCount
 		);
 	}
 
@@ -134,8 +217,21 @@ public class Customers extends LockScope
 	 */
 	public List<Customer> all()
 	{
-		return this.read(() ->
-			new ArrayList<>(this.customers.values())
+		return this.compute(customers ->
+			customers.collect(toList())
+		);
+	}
+
+	/**
+	 * Clears all {@link Lazy} references used by all customer segments.
+	 * This frees the used memory but you do not lose the persisted data. It is loaded again on demand.
+	 */
+	public void clear()
+	{
+		this.write(() ->
+			this.segments.values().forEach(lazy ->
+				clearIfStored(lazy)
+			)
 		);
 	}
 
@@ -150,11 +246,47 @@ public class Customers extends LockScope
 	{
 		return this.read(() ->
 			streamFunction.apply(
-				this.customers.values().parallelStream()
+				this.segments.values().parallelStream()
+					.map(Lazy::get)
+					.flatMap(segment -> segment.values().stream())
 			)
 		);
 	}
 
+	/**
+	 * Passes all customers to a consumer, one segment at a time, ordered by the segments' id range.
+	 * <p>
+	 * Segments which weren't loaded before are unloaded right after they were copied,
+	 * so iterating over all customers needs only the memory of one segment.
+	 * The read lock is held only while a segment is copied, the consumer is called without holding it,
+	 * so slow consumers don't block writers.
+	 *
+	 * @param consumer consumer of the unmodifiable customers of a single segment
+	 */
+	public void forEachSegment(final Consumer<Collection<Customer>> consumer)
+	{
+		final List<Integer> segmentIndices = this.read(() ->
+			this.segments.keySet().stream()
+				.sorted()
+				.collect(toList())
+		);
+		for(final Integer segmentIndex : segmentIndices)
+		{
+			final List<Customer> segment = this.read(() ->
+			{
+				final Lazy<Map<Integer, Customer>> lazy   = this.segments.get(segmentIndex);
+				final boolean                      loaded = lazy.isLoaded();
+				final List<Customer>               copy   = new ArrayList<>(lazy.get().values());
+				if(!loaded)
+				{
+					clearIfStored(lazy);
+				}
+				return copy;
+			});
+			consumer.accept(Collections.unmodifiableCollection(segment));
+		}
+	}
+
 	/**
 	 * Gets the customer with a specific ID or <code>null</code> if none was found.
 	 *
@@ -164,8 +296,12 @@ public class Customers extends LockScope
 	public Customer ofId(final int customerId)
 	{
 		return this.read(() ->
-			this.customers.get(customerId)
-		);
+		{
+			final Map<Integer, Customer> segment = Lazy.get(this.segments.get(segmentIndex(customerId)));
+			return segment == null
+				? null
+				: segment.get(customerId);
+		});
 	}
 
 }
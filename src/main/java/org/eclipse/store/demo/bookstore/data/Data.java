@@ -30,21 +30,59 @@ import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
  * <li>{@link Customers}</li>
  * <li>{@link Purchases}</li>
  * </ul>
+ * Additionally it holds the {@link Countries} registry, which is shared by {@link Shops} and {@link Customers}.
+ * <p>
+ * The {@link #layoutVersion()} is persisted with the data, so storages of older versions of this demo,
+ * whose object graph doesn't match the current types, are detected at startup.
  *
  * @see <a href="https://docs.eclipsestore.io/manual/storage/root-instances.html">EclipseStore Reference Manual</a>
  */
 public class Data
 {
+	/**
+	 * Version of the persisted object graph, it has to be increased with every incompatible change of the data types.
+	 * <p>
+	 * Version 1 introduced the lazy customer segments and the {@link Countries} registry.
+	 * Version 2 introduced the persistent stock aggregates of the {@link Shops}.
+	 * Storages without a version were created before.
+	 */
+	public final static int LAYOUT_VERSION = 2;
+
+
+	/*
+	 * Assigned in the constructor, so that reads are not inlined as compile time constant.
+	 */
+	private final int       layoutVersion;
+	private final Countries countries = new Countries();
 	private final Books     books     = new Books    ();
-	private final Shops     shops     = new Shops    ();
-	private final Customers customers = new Customers();
-	private final Purchases purchases = new Purchases();
+	private final Shops     shops     = new Shops    (this.countries);
+	private final Customers customers = new Customers(this.countries);
+	private final Purchases purchases = new Purchases(this.shops);
 
 	public Data()
 	{
 		super();
+		this.layoutVersion = LAYOUT_VERSION;
+	}
+
+	/**
+	 * Get the version of the persisted object graph, see {@link #LAYOUT_VERSION}.
+	 * @return the layout version, 0 for storages created before versioning
+	 */
+	public int layoutVersion()
+	{
+		return this.layoutVersion;
 	}
 	
+	/**
+	 * Get the {@link Countries} instance of this data node.
+	 * @return the {@link Countries}
+	 */
+	public Countries countries()
+	{
+		return this.countries;
+	}
+
 	/**
 	 * Get the {@link Books} instance of this data node.
 	 * @return the {@link Books}
@@ -86,15 +124,18 @@ public class Data
 	 */
 	public DataMetrics populate(
 		final RandomDataAmount       initialDataSize,
+		final long                   seed           ,
 		final EmbeddedStorageManager storageManager
 	)
 	{
 		return new RandomDataGenerator(
+			this.countries,
 			this.books,
 			this.shops,
 			this.customers,
 			this.purchases,
 			initialDataSize,
+			seed,
 			storageManager
 		)
 		.generate();
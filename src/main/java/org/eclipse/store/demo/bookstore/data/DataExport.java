@@ -0,0 +1,850 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import javax.money.MonetaryAmount;
+
+import org.eclipse.store.demo.bookstore.util.CsvUtils;
+import org.rapidpm.dependencies.core.logger.HasLogger;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.Range;
+
+/**
+ * Streaming exporter for purchases, books and customers.
+ * <p>
+ * Purchases are read one partition at a time with {@link Purchases#forEachPartition(int, Predicate, java.util.function.Consumer)},
+ * customers with {@link Customers#forEachSegment(java.util.function.Consumer)}. Partitions which weren't loaded before
+ * are unloaded again after they are written, so the heap needed is bounded by the size of a partition,
+ * not by the size of the export.
+ * <p>
+ * The CSV and NDJSON output uses the same fields as the {@link DataImport}, so exported data can be imported again.
+ * Purchases are written with one line per item in CSV and with an "items" array in NDJSON.
+ * <p>
+ * The columnar format is a compact binary format, written with {@link DataOutputStream}:
+ * <pre>
+ * header: "BSCOL" version:int type:UTF columnCount:int (name:UTF columnType:byte)*
+ * block:  rowCount:int column*
+ * end:    0:int
+ * </pre>
+ * Each column of a block holds the values of all rows of the block: strings are dictionary encoded
+ * (dictionarySize:int (value:UTF)* (index:int)*), ints as int, longs as long, decimals as long with two fraction digits
+ * and timestamps as long epoch seconds of the UTC local date time.
+ * A block contains at most {@value #BLOCK_SIZE} rows and never spans multiple partitions.
+ * <p>
+ * This type is stateless and therefor inherently thread safe.
+ */
+public class DataExport implements HasLogger
+{
+	/**
+	 * Type of the exported records.
+	 */
+	public static enum Type
+	{
+		PURCHASES,
+		BOOKS,
+		CUSTOMERS;
+
+		/**
+		 * @param name the case insensitive name of the type
+		 * @return the matching type
+		 * @throws IllegalArgumentException if no type matches
+		 */
+		public static Type ofName(final String name)
+		{
+			for(final Type type : values())
+			{
+				if(type.name().equalsIgnoreCase(name))
+				{
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("Unknown type: " + name
+				+ ", supported types: " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+		}
+	}
+
+
+	/**
+	 * Format of the export target.
+	 */
+	public static enum Format
+	{
+		CSV     ("text/csv"                ),
+		NDJSON  ("application/x-ndjson"    ),
+		COLUMNAR("application/octet-stream");
+
+		private final String contentType;
+
+		private Format(final String contentType)
+		{
+			this.contentType = contentType;
+		}
+
+		public String contentType()
+		{
+			return this.contentType;
+		}
+
+		/**
+		 * @param name the case insensitive name of the format
+		 * @return the matching format
+		 * @throws IllegalArgumentException if no format matches
+		 */
+		public static Format ofName(final String name)
+		{
+			for(final Format format : values())
+			{
+				if(format.name().equalsIgnoreCase(name))
+				{
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Unknown format: " + name
+				+ ", supported formats: " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+		}
+
+		/**
+		 * @param fileName the name of the target file
+		 * @return {@link #NDJSON} for files ending with .ndjson or .jsonl,
+		 * {@link #COLUMNAR} for files ending with .col, {@link #CSV} otherwise
+		 */
+		public static Format ofFileName(final String fileName)
+		{
+			final String lowerCase = fileName.toLowerCase(Locale.ROOT);
+			if(lowerCase.endsWith(".ndjson") || lowerCase.endsWith(".jsonl"))
+			{
+				return NDJSON;
+			}
+			return lowerCase.endsWith(".col")
+				? COLUMNAR
+				: CSV;
+		}
+	}
+
+
+	/**
+	 * Result of an export.
+	 * <p>
+	 * This type is immutable and therefor inherently thread safe.
+	 */
+	public static class Result
+	{
+		private final Type type   ;
+		private final long records;
+		private final long nanos  ;
+
+		Result(
+			final Type type   ,
+			final long records,
+			final long nanos
+		)
+		{
+			super();
+			this.type    = type   ;
+			this.records = records;
+			this.nanos   = nanos  ;
+		}
+
+		public Type type()
+		{
+			return this.type;
+		}
+
+		public long records()
+		{
+			return this.records;
+		}
+
+		public double seconds()
+		{
+			return this.nanos / 1_000_000_000.0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(
+				"%,d %s exported in %.2f s (%,.0f records/s)",
+				this.records,
+				this.type.name().toLowerCase(Locale.ROOT),
+				this.seconds(),
+				this.records / Math.max(this.seconds(), 0.001)
+			);
+		}
+	}
+
+
+	/**
+	 * Type of a column, which defines its encoding in the columnar format.
+	 */
+	private static enum ColumnType
+	{
+		STRING,
+		INT,
+		LONG,
+		DECIMAL,
+		TIMESTAMP
+	}
+
+
+	/**
+	 * Column of an exported table.
+	 *
+	 * @param <T> the row type
+	 */
+	private static class Column<T>
+	{
+		final String              name  ;
+		final ColumnType          type  ;
+		final boolean             item  ;
+		final Function<T, Object> getter;
+
+		Column(
+			final String              name  ,
+			final ColumnType          type  ,
+			final boolean             item  ,
+			final Function<T, Object> getter
+		)
+		{
+			super();
+			this.name   = name  ;
+			this.type   = type  ;
+			this.item   = item  ;
+			this.getter = getter;
+		}
+
+		String format(final T row)
+		{
+			final Object value = this.getter.apply(row);
+			return value instanceof BigDecimal
+				? ((BigDecimal)value).toPlainString()
+				: String.valueOf(value);
+		}
+	}
+
+
+	/**
+	 * Exported table, a list of columns and an optional key which groups consecutive rows to one record.
+	 *
+	 * @param <T> the row type
+	 */
+	private static class Table<T>
+	{
+		final Type                type    ;
+		final List<Column<T>>     columns ;
+		final Function<T, Object> groupKey;
+
+		Table(
+			final Type                type    ,
+			final List<Column<T>>     columns ,
+			final Function<T, Object> groupKey
+		)
+		{
+			super();
+			this.type     = type    ;
+			this.columns  = columns ;
+			this.groupKey = groupKey;
+		}
+	}
+
+
+	/**
+	 * Row of the purchases table, one per purchase item.
+	 */
+	private static class PurchaseRow
+	{
+		final long         purchaseId;
+		final Purchase     purchase  ;
+		final PurchaseItem item      ;
+
+		PurchaseRow(
+			final long         purchaseId,
+			final Purchase     purchase  ,
+			final PurchaseItem item
+		)
+		{
+			super();
+			this.purchaseId = purchaseId;
+			this.purchase   = purchase  ;
+			this.item       = item      ;
+		}
+	}
+
+
+	private final static Table<PurchaseRow> PURCHASES = new Table<>(
+		Type.PURCHASES,
+		List.of(
+			new Column<>("purchaseId", ColumnType.LONG,      false, row -> row.purchaseId                  ),
+			new Column<>("shop",       ColumnType.STRING,    false, row -> row.purchase.shop().name()      ),
+			new Column<>("employee",   ColumnType.STRING,    false, row -> row.purchase.employee().name()  ),
+			new Column<>("customerId", ColumnType.INT,       false, row -> row.purchase.customer().customerId()),
+			new Column<>("timestamp",  ColumnType.TIMESTAMP, false, row -> row.purchase.timestamp()        ),
+			new Column<>("isbn13",     ColumnType.STRING,    true,  row -> row.item.book().isbn13()        ),
+			new Column<>("amount",     ColumnType.INT,       true,  row -> row.item.amount()               ),
+			new Column<>("price",      ColumnType.DECIMAL,   true,  row -> decimal(row.item.price())       )
+		),
+		row -> row.purchaseId
+	);
+
+	private final static Table<Book> BOOKS = new Table<>(
+		Type.BOOKS,
+		List.of(
+			new Column<>("isbn13",        ColumnType.STRING,  false, Book::isbn13                                    ),
+			new Column<>("title",         ColumnType.STRING,  false, Book::title                                     ),
+			new Column<>("author",        ColumnType.STRING,  false, book -> book.author().name()                    ),
+			new Column<>("genre",         ColumnType.STRING,  false, book -> book.genre().name()                     ),
+			new Column<>("publisher",     ColumnType.STRING,  false, book -> book.publisher().name()                 ),
+			new Column<>("language",      ColumnType.STRING,  false, book -> book.language().locale().toLanguageTag()),
+			new Column<>("purchasePrice", ColumnType.DECIMAL, false, book -> decimal(book.purchasePrice())           ),
+			new Column<>("retailPrice",   ColumnType.DECIMAL, false, book -> decimal(book.retailPrice())             ),
+			new Column<>("city",          ColumnType.STRING,  false, book -> book.author().address().city().name()   ),
+			new Column<>("state",         ColumnType.STRING,  false, book -> book.author().address().city().state().name()),
+			new Column<>("countryCode",   ColumnType.STRING,  false, book -> book.author().address().city().state().country().code())
+		),
+		null
+	);
+
+	private final static Table<Customer> CUSTOMERS = new Table<>(
+		Type.CUSTOMERS,
+		List.of(
+			new Column<>("customerId",  ColumnType.INT,    false, Customer::customerId                                    ),
+			new Column<>("name",        ColumnType.STRING, false, Customer::name                                          ),
+			new Column<>("address",     ColumnType.STRING, false, customer -> customer.address().address()                ),
+			new Column<>("address2",    ColumnType.STRING, false, customer -> customer.address().address2()               ),
+			new Column<>("zipCode",     ColumnType.STRING, false, customer -> customer.address().zipCode()                ),
+			new Column<>("city",        ColumnType.STRING, false, customer -> customer.address().city().name()            ),
+			new Column<>("state",       ColumnType.STRING, false, customer -> customer.address().city().state().name()    ),
+			new Column<>("countryCode", ColumnType.STRING, false, customer -> customer.address().city().state().country().code())
+		),
+		null
+	);
+
+	private final static int BLOCK_SIZE = 65_536;
+
+	private final Data data;
+
+	/**
+	 * @param data the data root to export from
+	 */
+	public DataExport(final Data data)
+	{
+		super();
+		this.data = data;
+	}
+
+	/**
+	 * Exports all books.
+	 *
+	 * @param format the format of the target
+	 * @param target the target, it is flushed but not closed
+	 * @return the result of the export
+	 * @throws UncheckedIOException if the target cannot be written
+	 */
+	public Result exportBooks(
+		final Format       format,
+		final OutputStream target
+	)
+	{
+		return this.export(BOOKS, format, target, writer ->
+			writer.partition(this.data.books().all())
+		);
+	}
+
+	/**
+	 * Exports all customers, ordered by their ids.
+	 *
+	 * @param format the format of the target
+	 * @param target the target, it is flushed but not closed
+	 * @return the result of the export
+	 * @throws UncheckedIOException if the target cannot be written
+	 */
+	public Result exportCustomers(
+		final Format       format,
+		final OutputStream target
+	)
+	{
+		return this.export(CUSTOMERS, format, target, writer ->
+			this.data.customers().forEachSegment(segment ->
+			{
+				final List<Customer> customers = new ArrayList<>(segment);
+				customers.sort(comparing(Customer::customerId));
+				writer.partition(customers);
+			})
+		);
+	}
+
+	/**
+	 * Exports the purchases of a range of years, optionally filtered by the country of the shops.
+	 * The purchases are ordered by year and shop name, and within a shop in the order they were made.
+	 *
+	 * @param years the years to export, the range is intersected with {@link Purchases#years()}
+	 * @param country the country of the shops, or <code>null</code> for all countries
+	 * @param format the format of the target
+	 * @param target the target, it is flushed but not closed
+	 * @return the result of the export
+	 * @throws UncheckedIOException if the target cannot be written
+	 */
+	public Result exportPurchases(
+		final Range<Integer> years  ,
+		final Country        country,
+		final Format         format ,
+		final OutputStream   target
+	)
+	{
+		final Purchases       purchases    = this.data.purchases();
+		final Predicate<Shop> shopSelector = country == null
+			? shop -> true
+			: shop -> shop.address().city().state().country().equals(country);
+
+		return this.export(PURCHASES, format, target, writer ->
+		{
+			final Range<Integer> available = purchases.years();
+			if(!available.isConnected(years))
+			{
+				return;
+			}
+			final Range<Integer> range      = available.intersection(years);
+			final long[]         purchaseId = {0L};
+			for(int year = range.lowerEndpoint(); year <= range.upperEndpoint(); year++)
+			{
+				if(!range.contains(year))
+				{
+					continue;
+				}
+				purchases.forEachPartition(year, shopSelector, partition ->
+				{
+					final List<PurchaseRow> rows = new ArrayList<>(partition.size() * 2);
+					for(final Purchase purchase : partition)
+					{
+						final long id = ++purchaseId[0];
+						purchase.items().forEach(item -> rows.add(new PurchaseRow(id, purchase, item)));
+					}
+					writer.partition(rows);
+				});
+			}
+		});
+	}
+
+	/**
+	 * Exports records of any type with default filters: all purchases, all books or all customers.
+	 *
+	 * @param type the type of the records
+	 * @param format the format of the target
+	 * @param target the target, it is flushed but not closed
+	 * @return the result of the export
+	 */
+	public Result export(
+		final Type         type  ,
+		final Format       format,
+		final OutputStream target
+	)
+	{
+		switch(type)
+		{
+			case BOOKS:
+				return this.exportBooks(format, target);
+			case CUSTOMERS:
+				return this.exportCustomers(format, target);
+			default:
+				return this.exportPurchases(Range.all(), null, format, target);
+		}
+	}
+
+	private <T> Result export(
+		final Table<T>           table ,
+		final Format             format,
+		final OutputStream       target,
+		final PartitionSource<T> source
+	)
+	{
+		final long start = System.nanoTime();
+		try
+		{
+			final TableWriter<T> writer = format == Format.CSV
+				? new CsvWriter<>(table, target)
+				: format == Format.NDJSON
+					? new NdjsonWriter<>(table, target)
+					: new ColumnarWriter<>(table, target);
+			source.writeTo(writer);
+			writer.finish();
+
+			final Result result = new Result(table.type, writer.records, System.nanoTime() - start);
+			this.logger().info("Export: " + result);
+			return result;
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static BigDecimal decimal(final MonetaryAmount amount)
+	{
+		return amount.getNumber().numberValue(BigDecimal.class).setScale(2, RoundingMode.HALF_UP);
+	}
+
+
+	/**
+	 * Source of the partitions of a table.
+	 */
+	@FunctionalInterface
+	private static interface PartitionSource<T>
+	{
+		void writeTo(TableWriter<T> writer);
+	}
+
+
+	/**
+	 * Writer for a table, which receives the rows partition by partition.
+	 * The rows of a record, e.g. the items of a purchase, never span multiple partitions.
+	 */
+	private static abstract class TableWriter<T>
+	{
+		final Table<T> table  ;
+		long           records;
+
+		TableWriter(final Table<T> table)
+		{
+			super();
+			this.table = table;
+		}
+
+		final void partition(final List<T> rows)
+		{
+			try
+			{
+				this.write(rows);
+			}
+			catch(final IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		abstract void write(List<T> rows) throws IOException;
+
+		abstract void finish() throws IOException;
+	}
+
+
+	private static class CsvWriter<T> extends TableWriter<T>
+	{
+		private final Writer writer;
+
+		CsvWriter(
+			final Table<T>     table ,
+			final OutputStream target
+		)
+		throws IOException
+		{
+			super(table);
+			this.writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 1 << 16);
+			this.writer.write(CsvUtils.formatLine(
+				table.columns.stream().map(column -> column.name).collect(toList())
+			));
+			this.writer.write('\n');
+		}
+
+		@Override
+		void write(final List<T> rows) throws IOException
+		{
+			final List<String> fields = new ArrayList<>(this.table.columns.size());
+			Object             group  = null;
+			for(final T row : rows)
+			{
+				fields.clear();
+				for(final Column<T> column : this.table.columns)
+				{
+					fields.add(column.format(row));
+				}
+				this.writer.write(CsvUtils.formatLine(fields));
+				this.writer.write('\n');
+
+				if(this.table.groupKey == null)
+				{
+					this.records++;
+				}
+				else
+				{
+					final Object key = this.table.groupKey.apply(row);
+					if(!key.equals(group))
+					{
+						this.records++;
+						group = key;
+					}
+				}
+			}
+		}
+
+		@Override
+		void finish() throws IOException
+		{
+			this.writer.flush();
+		}
+	}
+
+
+	private static class NdjsonWriter<T> extends TableWriter<T>
+	{
+		private final JsonGenerator generator;
+
+		NdjsonWriter(
+			final Table<T>     table ,
+			final OutputStream target
+		)
+		throws IOException
+		{
+			super(table);
+			this.generator = new JsonFactory()
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.createGenerator(new BufferedOutputStream(target, 1 << 16), JsonEncoding.UTF8);
+			this.generator.setRootValueSeparator(null);
+		}
+
+		@Override
+		void write(final List<T> rows) throws IOException
+		{
+			Object group = null;
+			for(final T row : rows)
+			{
+				if(this.table.groupKey == null)
+				{
+					this.generator.writeStartObject();
+					this.writeFields(row, false);
+					this.endRecord();
+					continue;
+				}
+
+				final Object key = this.table.groupKey.apply(row);
+				if(!key.equals(group))
+				{
+					if(group != null)
+					{
+						this.generator.writeEndArray();
+						this.endRecord();
+					}
+					group = key;
+					this.generator.writeStartObject();
+					this.writeFields(row, false);
+					this.generator.writeArrayFieldStart("items");
+				}
+				this.generator.writeStartObject();
+				this.writeFields(row, true);
+				this.generator.writeEndObject();
+			}
+			if(group != null)
+			{
+				this.generator.writeEndArray();
+				this.endRecord();
+			}
+		}
+
+		private void writeFields(
+			final T       row ,
+			final boolean item
+		)
+		throws IOException
+		{
+			for(final Column<T> column : this.table.columns)
+			{
+				if(column.item != item)
+				{
+					continue;
+				}
+				final Object value = column.getter.apply(row);
+				this.generator.writeFieldName(column.name);
+				if(value instanceof Integer)
+				{
+					this.generator.writeNumber((Integer)value);
+				}
+				else if(value instanceof Long)
+				{
+					this.generator.writeNumber((Long)value);
+				}
+				else if(value instanceof BigDecimal)
+				{
+					this.generator.writeNumber((BigDecimal)value);
+				}
+				else
+				{
+					this.generator.writeString(String.valueOf(value));
+				}
+			}
+		}
+
+		private void endRecord() throws IOException
+		{
+			this.generator.writeEndObject();
+			this.generator.writeRaw('\n');
+			this.records++;
+		}
+
+		@Override
+		void finish() throws IOException
+		{
+			this.generator.flush();
+		}
+	}
+
+
+	private static class ColumnarWriter<T> extends TableWriter<T>
+	{
+		private final static int VERSION = 1;
+
+		private final DataOutputStream output;
+
+		ColumnarWriter(
+			final Table<T>     table ,
+			final OutputStream target
+		)
+		throws IOException
+		{
+			super(table);
+			this.output = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+			this.output.writeBytes("BSCOL");
+			this.output.writeInt(VERSION);
+			this.output.writeUTF(table.type.name());
+			this.output.writeInt(table.columns.size());
+			for(final Column<T> column : table.columns)
+			{
+				this.output.writeUTF(column.name);
+				this.output.writeByte(column.type.ordinal());
+			}
+		}
+
+		@Override
+		void write(final List<T> rows) throws IOException
+		{
+			for(int from = 0; from < rows.size(); from += BLOCK_SIZE)
+			{
+				this.writeBlock(rows.subList(from, Math.min(from + BLOCK_SIZE, rows.size())));
+			}
+			this.records += this.table.groupKey == null
+				? rows.size()
+				: rows.stream().map(this.table.groupKey).distinct().count();
+		}
+
+		private void writeBlock(final List<T> rows) throws IOException
+		{
+			this.output.writeInt(rows.size());
+			for(final Column<T> column : this.table.columns)
+			{
+				switch(column.type)
+				{
+					case STRING:
+					{
+						final Map<String, Integer> dictionary = new HashMap<>();
+						final List<String>         values     = new ArrayList<>();
+						final int[]                indices    = new int[rows.size()];
+						for(int i = 0; i < indices.length; i++)
+						{
+							indices[i] = dictionary.computeIfAbsent(
+								Objects.toString(column.getter.apply(rows.get(i)), ""),
+								value ->
+								{
+									values.add(value);
+									return values.size() - 1;
+								}
+							);
+						}
+						this.output.writeInt(values.size());
+						for(final String value : values)
+						{
+							this.output.writeUTF(value);
+						}
+						for(final int index : indices)
+						{
+							this.output.writeInt(index);
+						}
+						break;
+					}
+
+					case INT:
+					{
+						for(final T row : rows)
+						{
+							this.output.writeInt((Integer)column.getter.apply(row));
+						}
+						break;
+					}
+
+					case LONG:
+					{
+						for(final T row : rows)
+						{
+							this.output.writeLong((Long)column.getter.apply(row));
+						}
+						break;
+					}
+
+					case DECIMAL:
+					{
+						for(final T row : rows)
+						{
+							this.output.writeLong(((BigDecimal)column.getter.apply(row)).movePointRight(2).longValue());
+						}
+						break;
+					}
+
+					case TIMESTAMP:
+					{
+						for(final T row : rows)
+						{
+							this.output.writeLong(((LocalDateTime)column.getter.apply(row)).toEpochSecond(ZoneOffset.UTC));
+						}
+						break;
+					}
+				}
+			}
+		}
+
+		@Override
+		void finish() throws IOException
+		{
+			this.output.writeInt(0);
+			this.output.flush();
+		}
+	}
+
+}
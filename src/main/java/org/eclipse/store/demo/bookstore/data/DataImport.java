@@ -0,0 +1,1013 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.money.MonetaryAmount;
+
+import org.eclipse.serializer.persistence.types.PersistenceStoring;
+import org.eclipse.store.demo.bookstore.BookStoreDemo;
+import org.eclipse.store.demo.bookstore.util.CsvUtils;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
+import org.rapidpm.dependencies.core.logger.HasLogger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streaming importer for books, shops, inventories, customers and purchases.
+ * <p>
+ * The source is read by a parser thread, which hands batches of records over a bounded queue to the importing thread.
+ * The records of a batch are validated and converted in parallel, then the whole batch is stored at once,
+ * e.g. with {@link Books#addAll(java.util.Collection, PersistenceStoring)}.
+ * So the heap needed is bounded by the batch size, not by the size of the source.
+ * Invalid records are skipped and reported in the {@link Result}.
+ * <p>
+ * Supported formats are CSV with a header line and NDJSON with one object per line, with the following fields:
+ * <ul>
+ * <li><b>books</b>: isbn13, title, author, genre, publisher, language (IETF language tag), purchasePrice,
+ * retailPrice (optional, calculated if missing), city, state and countryCode of new authors and publishers</li>
+ * <li><b>shops</b>: name, address, address2, zipCode, city, state, countryCode,
+ * employees (optional, names separated by '|', they get the shop's address)</li>
+ * <li><b>inventory</b>: shop, isbn13, amount; the amounts are added to the shop's inventory</li>
+ * <li><b>customers</b>: customerId, name, address, address2, zipCode, city, state, countryCode</li>
+ * <li><b>purchases</b>: shop, employee, customerId, timestamp (ISO local date time) and items with isbn13 and amount;
+ * in CSV one line per item, consecutive lines with the same purchaseId form a purchase,
+ * in NDJSON an "items" array</li>
+ * </ul>
+ * Referenced entities, like the shop of a purchase, have to exist before.
+ * Purchases are imported as history, so the inventories are not changed.
+ * <p>
+ * An instance must not be used for multiple imports concurrently.
+ */
+public class DataImport implements HasLogger
+{
+	/**
+	 * Type of the imported records.
+	 */
+	public static enum Type
+	{
+		BOOKS,
+		SHOPS,
+		INVENTORY,
+		CUSTOMERS,
+		PURCHASES;
+
+		/**
+		 * @param name the case insensitive name of the type
+		 * @return the matching type
+		 * @throws IllegalArgumentException if no type matches
+		 */
+		public static Type ofName(final String name)
+		{
+			for(final Type type : values())
+			{
+				if(type.name().equalsIgnoreCase(name))
+				{
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("Unknown type: " + name
+				+ ", supported types: " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+		}
+	}
+
+
+	/**
+	 * Format of the import source.
+	 */
+	public static enum Format
+	{
+		CSV,
+		NDJSON;
+
+		/**
+		 * @param name the case insensitive name of the format
+		 * @return the matching format
+		 * @throws IllegalArgumentException if no format matches
+		 */
+		public static Format ofName(final String name)
+		{
+			for(final Format format : values())
+			{
+				if(format.name().equalsIgnoreCase(name))
+				{
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Unknown format: " + name
+				+ ", supported formats: " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+		}
+
+		/**
+		 * @param fileName the name of the source file
+		 * @return {@link #NDJSON} for files ending with .ndjson or .jsonl, {@link #CSV} otherwise
+		 */
+		public static Format ofFileName(final String fileName)
+		{
+			final String lowerCase = fileName.toLowerCase(Locale.ROOT);
+			return lowerCase.endsWith(".ndjson") || lowerCase.endsWith(".jsonl")
+				? NDJSON
+				: CSV;
+		}
+	}
+
+
+	/**
+	 * Result of an import.
+	 * <p>
+	 * This type is immutable and therefor inherently thread safe.
+	 */
+	public static class Result
+	{
+		private final Type         type    ;
+		private final long         read    ;
+		private final long         imported;
+		private final long         rejected;
+		private final long         nanos   ;
+		private final List<String> errors  ;
+
+		Result(
+			final Type         type    ,
+			final long         read    ,
+			final long         imported,
+			final long         rejected,
+			final long         nanos   ,
+			final List<String> errors
+		)
+		{
+			super();
+			this.type     = type    ;
+			this.read     = read    ;
+			this.imported = imported;
+			this.rejected = rejected;
+			this.nanos    = nanos   ;
+			this.errors   = Collections.unmodifiableList(new ArrayList<>(errors));
+		}
+
+		public Type type()
+		{
+			return this.type;
+		}
+
+		public long read()
+		{
+			return this.read;
+		}
+
+		public long imported()
+		{
+			return this.imported;
+		}
+
+		public long rejected()
+		{
+			return this.rejected;
+		}
+
+		public double seconds()
+		{
+			return this.nanos / 1_000_000_000.0;
+		}
+
+		public double recordsPerSecond()
+		{
+			return this.read / Math.max(this.seconds(), 0.001);
+		}
+
+		/**
+		 * @return the messages of the first rejected records
+		 */
+		public List<String> errors()
+		{
+			return this.errors;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(
+				"%,d of %,d %s imported, %,d rejected, in %.2f s (%,.0f records/s)",
+				this.imported,
+				this.read,
+				this.type.name().toLowerCase(Locale.ROOT),
+				this.rejected,
+				this.seconds(),
+				this.recordsPerSecond()
+			);
+		}
+	}
+
+
+	/**
+	 * Thrown if an import fails after it has started, e.g. if the source cannot be read or storing fails.
+	 * The batches which were stored before remain imported, they are counted in the {@link #result()}.
+	 */
+	public static class FailedException extends RuntimeException
+	{
+		private final Result result;
+
+		FailedException(
+			final Result    result,
+			final Throwable cause
+		)
+		{
+			super("Import failed after " + result.imported() + " records: " + cause.getMessage(), cause);
+			this.result = result;
+		}
+
+		/**
+		 * @return the result of the records which were imported before the failure
+		 */
+		public Result result()
+		{
+			return this.result;
+		}
+	}
+
+
+	/**
+	 * Record of the source, with the line number for error messages.
+	 */
+	private static class ImportRecord
+	{
+		final long                      line  ;
+		final Map<String, String>       fields;
+		final List<Map<String, String>> items ;
+		final String                    error ;
+
+		ImportRecord(
+			final long                      line  ,
+			final Map<String, String>       fields,
+			final List<Map<String, String>> items ,
+			final String                    error
+		)
+		{
+			super();
+			this.line   = line  ;
+			this.fields = fields;
+			this.items  = items ;
+			this.error  = error ;
+		}
+
+		static String get(
+			final Map<String, String> fields,
+			final String              name
+		)
+		{
+			final String value = fields.get(name);
+			if(value == null || value.isBlank())
+			{
+				throw new IllegalArgumentException("Missing field: " + name);
+			}
+			return value.trim();
+		}
+
+		String get(final String name)
+		{
+			return get(this.fields, name);
+		}
+
+		String optional(final String name)
+		{
+			final String value = this.fields.get(name);
+			return value != null
+				? value.trim()
+				: "";
+		}
+	}
+
+
+	/**
+	 * Counters and errors of a running import, shared by the parallel validation.
+	 */
+	private static class Progress
+	{
+		final AtomicLong   read     = new AtomicLong();
+		final AtomicLong   imported = new AtomicLong();
+		final AtomicLong   rejected = new AtomicLong();
+		final List<String> errors   = new ArrayList<>();
+
+		void reject(
+			final ImportRecord record ,
+			final String       message
+		)
+		{
+			this.rejected.incrementAndGet();
+			synchronized(this.errors)
+			{
+				if(this.errors.size() < MAX_ERRORS)
+				{
+					this.errors.add("line " + record.line + ": " + message);
+				}
+			}
+		}
+	}
+
+
+	private final static int          BATCH_SIZE     = 10_000;
+	private final static int          QUEUE_CAPACITY = 4;
+	private final static int          MAX_ERRORS     = 100;
+	private final static ObjectMapper JSON           = new ObjectMapper();
+
+	private final Data               data     ;
+	private final PersistenceStoring persister;
+
+	/*
+	 * Resolved or created reference entities, shared by the parallel validation.
+	 */
+	private final Map<String, Country>   countries  = new ConcurrentHashMap<>();
+	private final Map<String, State>     states     = new ConcurrentHashMap<>();
+	private final Map<String, City>      cities     = new ConcurrentHashMap<>();
+	private final Map<String, Author>    authors    = new ConcurrentHashMap<>();
+	private final Map<String, Publisher> publishers = new ConcurrentHashMap<>();
+	private final Map<String, Genre>     genres     = new ConcurrentHashMap<>();
+	private final Map<String, Language>  languages  = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an importer which stores with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 *
+	 * @param data the data root to import into
+	 */
+	public DataImport(final Data data)
+	{
+		this(data, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Creates an importer which stores with the given persister.
+	 *
+	 * @param data the data root to import into
+	 * @param persister the persister to store with
+	 */
+	public DataImport(
+		final Data               data     ,
+		final PersistenceStoring persister
+	)
+	{
+		super();
+		this.data      = data     ;
+		this.persister = persister;
+	}
+
+	/**
+	 * Imports all records of a source.
+	 *
+	 * @param type the type of the records
+	 * @param format the format of the source
+	 * @param source the source, it is read to the end but not closed
+	 * @return the result of the import
+	 * @throws FailedException if the source cannot be read or storing fails
+	 */
+	public Result run(
+		final Type   type  ,
+		final Format format,
+		final Reader source
+	)
+	{
+		this.initReferences();
+
+		final long                              start      = System.nanoTime();
+		final Progress                          progress   = new Progress();
+		final BlockingQueue<List<ImportRecord>> queue      = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final List<ImportRecord>                end        = new ArrayList<>();
+		final AtomicReference<RuntimeException> parseError = new AtomicReference<>();
+
+		final Thread parser = new Thread(() ->
+		{
+			try
+			{
+				this.parse(type, format, source, progress, queue);
+			}
+			catch(final RuntimeException e)
+			{
+				parseError.set(e);
+			}
+			catch(final InterruptedException e)
+			{
+				return;
+			}
+			try
+			{
+				queue.put(end);
+			}
+			catch(final InterruptedException e)
+			{
+				// import was aborted
+			}
+		}, "bookstore-import-parser");
+		parser.setDaemon(true);
+		parser.start();
+
+		try
+		{
+			List<ImportRecord> batch;
+			while((batch = queue.take()) != end)
+			{
+				this.importBatch(type, batch, progress);
+			}
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw this.failed(type, progress, start, e);
+		}
+		catch(final RuntimeException e)
+		{
+			throw this.failed(type, progress, start, e);
+		}
+		finally
+		{
+			parser.interrupt();
+		}
+
+		if(parseError.get() != null)
+		{
+			throw this.failed(type, progress, start, parseError.get());
+		}
+
+		final Result result = result(type, progress, start);
+		this.logger().info("Import: " + result);
+		return result;
+	}
+
+	private FailedException failed(
+		final Type      type    ,
+		final Progress  progress,
+		final long      start   ,
+		final Throwable cause
+	)
+	{
+		final FailedException exception = new FailedException(result(type, progress, start), cause);
+		this.logger().severe(exception.getMessage());
+		return exception;
+	}
+
+	private static Result result(
+		final Type     type    ,
+		final Progress progress,
+		final long     start
+	)
+	{
+		synchronized(progress.errors)
+		{
+			return new Result(
+				type,
+				progress.read.get(),
+				progress.imported.get(),
+				progress.rejected.get(),
+				System.nanoTime() - start,
+				progress.errors
+			);
+		}
+	}
+
+	/**
+	 * Fills the reference caches with the existing entities.
+	 */
+	private void initReferences()
+	{
+		this.countries .clear();
+		this.states    .clear();
+		this.cities    .clear();
+		this.authors   .clear();
+		this.publishers.clear();
+		this.genres    .clear();
+		this.languages .clear();
+
+		final Books books = this.data.books();
+		books.authors   ().forEach(author    -> this.authors   .putIfAbsent(author.name(), author));
+		books.publishers().forEach(publisher -> this.publishers.putIfAbsent(publisher.name(), publisher));
+		books.genres    ().forEach(genre     -> this.genres    .putIfAbsent(genre.name(), genre));
+		books.languages ().forEach(language  -> this.languages .putIfAbsent(language.locale().toLanguageTag(), language));
+	}
+
+	/**
+	 * Reads the source and puts batches of records into the queue.
+	 */
+	private void parse(
+		final Type                              type    ,
+		final Format                            format  ,
+		final Reader                            source  ,
+		final Progress                          progress,
+		final BlockingQueue<List<ImportRecord>> queue
+	)
+	throws InterruptedException
+	{
+		final BufferedReader reader = source instanceof BufferedReader
+			? (BufferedReader)source
+			: new BufferedReader(source, 1 << 16);
+		try
+		{
+			List<ImportRecord> batch = new ArrayList<>(BATCH_SIZE);
+			if(format == Format.CSV)
+			{
+				final String headerLine = CsvUtils.readRecord(reader);
+				if(headerLine == null)
+				{
+					return;
+				}
+				final List<String> header = CsvUtils.parseLine(headerLine).stream()
+					.map(String::trim)
+					.collect(toList());
+
+				ImportRecord purchase   = null;
+				String       purchaseId = null;
+				long         nextLine   = 2 + headerLine.chars().filter(c -> c == '\n').count();
+				String       line;
+				while((line = CsvUtils.readRecord(reader)) != null)
+				{
+					/*
+					 * A record with quoted line breaks spans multiple lines, errors refer to its first line.
+					 */
+					final long lineNumber = nextLine;
+					nextLine += 1 + line.chars().filter(c -> c == '\n').count();
+					if(line.isBlank())
+					{
+						continue;
+					}
+					final ImportRecord record = parseCsv(lineNumber, header, line);
+					if(type != Type.PURCHASES || record.error != null)
+					{
+						batch = this.add(batch, record, progress, queue);
+						continue;
+					}
+
+					/*
+					 * Consecutive lines with the same purchase id are the items of one purchase.
+					 */
+					final String id = record.fields.getOrDefault("purchaseId", "");
+					if(purchase != null && !id.isEmpty() && id.equals(purchaseId))
+					{
+						purchase.items.add(record.fields);
+					}
+					else
+					{
+						if(purchase != null)
+						{
+							batch = this.add(batch, purchase, progress, queue);
+						}
+						purchase   = new ImportRecord(lineNumber, record.fields, new ArrayList<>(List.of(record.fields)), null);
+						purchaseId = id;
+					}
+				}
+				if(purchase != null)
+				{
+					batch = this.add(batch, purchase, progress, queue);
+				}
+			}
+			else
+			{
+				long   lineNumber = 0;
+				String line;
+				while((line = reader.readLine()) != null)
+				{
+					lineNumber++;
+					if(line.isBlank())
+					{
+						continue;
+					}
+					batch = this.add(batch, parseJson(lineNumber, line), progress, queue);
+				}
+			}
+			if(!batch.isEmpty())
+			{
+				queue.put(batch);
+			}
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private List<ImportRecord> add(
+		final List<ImportRecord>                batch   ,
+		final ImportRecord                      record  ,
+		final Progress                          progress,
+		final BlockingQueue<List<ImportRecord>> queue
+	)
+	throws InterruptedException
+	{
+		progress.read.incrementAndGet();
+		batch.add(record);
+		if(batch.size() < BATCH_SIZE)
+		{
+			return batch;
+		}
+		queue.put(batch);
+		return new ArrayList<>(BATCH_SIZE);
+	}
+
+	private static ImportRecord parseCsv(
+		final long         lineNumber,
+		final List<String> header    ,
+		final String       line
+	)
+	{
+		try
+		{
+			final List<String> values = CsvUtils.parseLine(line);
+			if(values.size() != header.size())
+			{
+				return new ImportRecord(lineNumber, null, null,
+					"Expected " + header.size() + " fields but found " + values.size());
+			}
+			final Map<String, String> fields = new HashMap<>(header.size() * 2);
+			for(int i = 0; i < header.size(); i++)
+			{
+				fields.put(header.get(i), values.get(i));
+			}
+			return new ImportRecord(lineNumber, fields, null, null);
+		}
+		catch(final IllegalArgumentException e)
+		{
+			return new ImportRecord(lineNumber, null, null, e.getMessage());
+		}
+	}
+
+	private static ImportRecord parseJson(
+		final long   lineNumber,
+		final String line
+	)
+	{
+		try
+		{
+			final JsonNode node = JSON.readTree(line);
+			if(!node.isObject())
+			{
+				return new ImportRecord(lineNumber, null, null, "JSON object expected");
+			}
+			final JsonNode                  itemsNode = node.get("items");
+			final List<Map<String, String>> items     = new ArrayList<>();
+			if(itemsNode != null && itemsNode.isArray())
+			{
+				itemsNode.forEach(item -> items.add(jsonFields(item)));
+			}
+			return new ImportRecord(lineNumber, jsonFields(node), items, null);
+		}
+		catch(final IOException e)
+		{
+			return new ImportRecord(lineNumber, null, null, "Invalid JSON: " + e.getMessage());
+		}
+	}
+
+	private static Map<String, String> jsonFields(final JsonNode node)
+	{
+		final Map<String, String> fields = new HashMap<>();
+		node.fields().forEachRemaining(field ->
+		{
+			if(field.getValue().isValueNode())
+			{
+				fields.put(field.getKey(), field.getValue().asText());
+			}
+		});
+		return fields;
+	}
+
+	/**
+	 * Validates and converts a batch in parallel and stores the valid entities.
+	 */
+	private void importBatch(
+		final Type               type    ,
+		final List<ImportRecord> batch   ,
+		final Progress           progress
+	)
+	{
+		switch(type)
+		{
+			case BOOKS:
+			{
+				final List<Book> books = this.unique(
+					this.convert(batch, progress, this::toBook),
+					Book::isbn13,
+					progress
+				);
+				this.data.countries().addAll(
+					books.stream()
+						.flatMap(book -> Stream.of(book.author(), book.publisher()))
+						.map(entity -> entity.address().city())
+						.distinct()
+						.collect(toList()),
+					this.persister
+				);
+				this.data.books().addAll(books, this.persister);
+				progress.imported.addAndGet(books.size());
+				break;
+			}
+
+			case SHOPS:
+			{
+				final List<Shop> shops = this.unique(
+					this.convert(batch, progress, this::toShop),
+					Shop::name,
+					progress
+				);
+				this.data.shops().addAll(shops, this.persister);
+				progress.imported.addAndGet(shops.size());
+				break;
+			}
+
+			case INVENTORY:
+			{
+				final List<InventoryItem> items = this.convert(batch, progress, this::toInventoryItem);
+				items.stream()
+					.collect(groupingBy(InventoryItem::shop))
+					.forEach((shop, shopItems) ->
+					{
+						final Map<Book, Integer> amounts = new HashMap<>();
+						shopItems.forEach(item -> amounts.merge(item.book(), item.amount(), Integer::sum));
+						this.data.shops().restockAll(shop, amounts, this.persister);
+						progress.imported.addAndGet(shopItems.size());
+					});
+				break;
+			}
+
+			case CUSTOMERS:
+			{
+				final List<Customer> customers = this.unique(
+					this.convert(batch, progress, this::toCustomer),
+					Customer::customerId,
+					progress
+				);
+				this.data.customers().addAll(customers, this.persister);
+				progress.imported.addAndGet(customers.size());
+				break;
+			}
+
+			case PURCHASES:
+			{
+				final List<Purchase> purchases = this.convert(batch, progress, this::toPurchase);
+				purchases.stream()
+					.collect(groupingBy(purchase -> purchase.timestamp().getYear()))
+					.forEach((year, purchasesOfYear) ->
+						this.data.purchases().init(year, purchasesOfYear, this.persister)
+					);
+				progress.imported.addAndGet(purchases.size());
+				break;
+			}
+		}
+	}
+
+	private <T> List<T> convert(
+		final List<ImportRecord>        batch    ,
+		final Progress                  progress ,
+		final Function<ImportRecord, T> converter
+	)
+	{
+		return batch.parallelStream()
+			.map(record ->
+			{
+				if(record.error != null)
+				{
+					progress.reject(record, record.error);
+					return null;
+				}
+				try
+				{
+					return converter.apply(record);
+				}
+				catch(final RuntimeException e)
+				{
+					progress.reject(record, e.getMessage());
+					return null;
+				}
+			})
+			.filter(Objects::nonNull)
+			.collect(toList());
+	}
+
+	/**
+	 * Removes entities with duplicate keys within a batch, the first one wins.
+	 * Duplicates of already stored entities are rejected by the converters.
+	 */
+	private <T, K> List<T> unique(
+		final List<T>        entities,
+		final Function<T, K> key     ,
+		final Progress       progress
+	)
+	{
+		final Map<K, T> unique = new LinkedHashMap<>(entities.size() * 2);
+		entities.forEach(entity ->
+		{
+			if(unique.putIfAbsent(key.apply(entity), entity) != null)
+			{
+				progress.rejected.incrementAndGet();
+			}
+		});
+		return new ArrayList<>(unique.values());
+	}
+
+	private Book toBook(final ImportRecord record)
+	{
+		final String isbn13 = Book.validateIsbn13(record.get("isbn13"));
+		if(this.data.books().ofIsbn13(isbn13) != null)
+		{
+			throw new IllegalArgumentException("ISBN already assigned: " + isbn13);
+		}
+
+		final MonetaryAmount purchasePrice = BookStoreDemo.money(new BigDecimal(record.get("purchasePrice")));
+		final String         retailPrice   = record.optional("retailPrice");
+		final Language       language      = this.languages.computeIfAbsent(
+			Locale.forLanguageTag(record.get("language")).toLanguageTag(),
+			tag -> new Language(Locale.forLanguageTag(tag))
+		);
+		final Genre          genre         = this.genres.computeIfAbsent(
+			record.get("genre"),
+			Genre::new
+		);
+		final Author         author        = this.authors.computeIfAbsent(
+			record.get("author"),
+			name -> new Author(name, new Address("", "", "", this.city(record)))
+		);
+		final Publisher      publisher     = this.publishers.computeIfAbsent(
+			record.get("publisher"),
+			name -> new Publisher(name, new Address("", "", "", this.city(record)))
+		);
+
+		return new Book(
+			isbn13,
+			record.get("title"),
+			author,
+			genre,
+			publisher,
+			language,
+			purchasePrice,
+			retailPrice.isEmpty()
+				? BookStoreDemo.retailPrice(purchasePrice)
+				: BookStoreDemo.money(new BigDecimal(retailPrice))
+		);
+	}
+
+	private Shop toShop(final ImportRecord record)
+	{
+		final String name = record.get("name");
+		if(this.data.shops().ofName(name) != null)
+		{
+			throw new IllegalArgumentException("Shop already exists: " + name);
+		}
+
+		final Address        address   = this.address(record);
+		final List<Employee> employees = Arrays.stream(record.optional("employees").split("\\|"))
+			.map(String::trim)
+			.filter(employee -> !employee.isEmpty())
+			.map(employee -> new Employee(employee, address))
+			.collect(toList());
+		return new Shop(name, address, employees, new Inventory());
+	}
+
+	private InventoryItem toInventoryItem(final ImportRecord record)
+	{
+		return new InventoryItem(
+			this.shop(record.get("shop")),
+			this.book(record.get("isbn13")),
+			Integer.parseInt(record.get("amount"))
+		);
+	}
+
+	private Customer toCustomer(final ImportRecord record)
+	{
+		final int customerId = Integer.parseInt(record.get("customerId"));
+		if(this.data.customers().ofId(customerId) != null)
+		{
+			throw new IllegalArgumentException("Customer id already assigned: " + customerId);
+		}
+
+		return new Customer(
+			customerId,
+			record.get("name"),
+			this.address(record)
+		);
+	}
+
+	private Purchase toPurchase(final ImportRecord record)
+	{
+		final Shop     shop         = this.shop(record.get("shop"));
+		final String   employeeName = record.get("employee");
+		final Employee employee     = shop.employees()
+			.filter(e -> e.name().equals(employeeName))
+			.findFirst()
+			.orElseThrow(() -> new IllegalArgumentException("Employee not found: " + employeeName));
+		final int      customerId   = Integer.parseInt(record.get("customerId"));
+		final Customer customer     = this.data.customers().ofId(customerId);
+		if(customer == null)
+		{
+			throw new IllegalArgumentException("Customer not found: " + customerId);
+		}
+
+		final List<PurchaseItem> items = record.items.stream()
+			.map(item -> new PurchaseItem(
+				this.book(ImportRecord.get(item, "isbn13")),
+				Integer.parseInt(ImportRecord.get(item, "amount"))
+			))
+			.collect(toList());
+
+		return new Purchase(
+			shop,
+			employee,
+			customer,
+			LocalDateTime.parse(record.get("timestamp")),
+			items
+		);
+	}
+
+	private Shop shop(final String name)
+	{
+		final Shop shop = this.data.shops().ofName(name);
+		if(shop == null)
+		{
+			throw new IllegalArgumentException("Shop not found: " + name);
+		}
+		return shop;
+	}
+
+	private Book book(final String isbn13)
+	{
+		final Book book = this.data.books().ofIsbn13(isbn13);
+		if(book == null)
+		{
+			throw new IllegalArgumentException("Book not found: " + isbn13);
+		}
+		return book;
+	}
+
+	private Address address(final ImportRecord record)
+	{
+		return new Address(
+			record.get("address"),
+			record.optional("address2"),
+			record.get("zipCode"),
+			this.city(record)
+		);
+	}
+
+	/**
+	 * Resolves the city of a record by its countryCode, state and city fields.
+	 * Existing entities of the {@link Countries} registry are reused, missing ones are created.
+	 */
+	private City city(final ImportRecord record)
+	{
+		final String  countryCode = record.get("countryCode").toUpperCase(Locale.ROOT);
+		final Country country     = this.countries.computeIfAbsent(countryCode, code ->
+		{
+			final Country existing = this.data.countries().ofCode(code);
+			return existing != null
+				? existing
+				: new Country(new Locale("", code).getDisplayCountry(Locale.ENGLISH), code);
+		});
+
+		final String stateName = record.get("state");
+		final State  state     = this.states.computeIfAbsent(countryCode + '\n' + stateName, key ->
+			this.data.countries().states(country).stream()
+				.filter(s -> s.name().equals(stateName))
+				.findFirst()
+				.orElseGet(() -> new State(stateName, country))
+		);
+
+		final String cityName = record.get("city");
+		return this.cities.computeIfAbsent(countryCode + '\n' + stateName + '\n' + cityName, key ->
+			this.data.countries().cities(state).stream()
+				.filter(c -> c.name().equals(cityName))
+				.findFirst()
+				.orElseGet(() -> new City(cityName, state))
+		);
+	}
+
+}
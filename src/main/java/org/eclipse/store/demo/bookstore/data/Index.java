@@ -198,15 +198,34 @@ public class Index<T> implements Closeable
 		final Query query     ,
 		final int   maxResults
 	)
+	{
+		return this.search(query, 0, maxResults);
+	}
+
+	/**
+	 * Queries this index and returns a range of the results, ordered by relevance.
+	 * Only the hits up to the end of the range are collected, and only the ones within the range are resolved.
+	 *
+	 * @param query the search query
+	 * @param offset the position of the first result to return
+	 * @param maxResults maximum number of results
+	 * @return the list of found objects
+	 */
+	public synchronized List<T> search(
+		final Query query     ,
+		final int   offset    ,
+		final int   maxResults
+	)
 	{
 		this.lazyInit();
 
 		try
 		{
-			final TopDocs topDocs = this.searcher.search(query, maxResults);
-			final List<T> result = new ArrayList<>(topDocs.scoreDocs.length);
-			for(final ScoreDoc scoreDoc : topDocs.scoreDocs)
+			final TopDocs topDocs = this.searcher.search(query, (int)Math.min(Integer.MAX_VALUE, (long)offset + maxResults));
+			final List<T> result = new ArrayList<>(Math.max(0, topDocs.scoreDocs.length - offset));
+			for(int i = offset; i < topDocs.scoreDocs.length; i++)
 			{
+				final ScoreDoc scoreDoc = topDocs.scoreDocs[i];
 				final Document document = this.searcher.storedFields().document(scoreDoc.doc);
 				final T entity = this.entityMatcher.apply(document);
 				if(entity != null)
@@ -14,29 +14,57 @@ package org.eclipse.store.demo.bookstore.data;
  * #L%
  */
 
+import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
-import static org.eclipse.serializer.util.X.coalesce;
+import static org.eclipse.store.demo.bookstore.util.ValidationUtils.requirePositive;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.eclipse.serializer.concurrency.LockScope;
+import org.eclipse.serializer.persistence.types.PersistenceStoring;
+import org.eclipse.store.demo.bookstore.BookStoreDemo;
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
 
 /**
  * Inventory entity which holds {@link Book}s and amounts of them.
  * <p>
+ * The books are held in an array sorted by {@link Book#isbn13()}, the amounts in a parallel <code>int</code> array.
+ * This avoids any per-entry objects, lookups are done by binary search.
+ * <p>
+ * Amounts are changed with atomic compare-and-set operations under the shared read lock,
+ * so concurrent sales don't block each other. Only adding a new book to the inventory,
+ * which replaces the arrays, requires the exclusive write lock.
+ * When amounts change, only the amount array is stored.
+ * <p>
  * All operations on this type are thread safe.
  *
  * @see LockScope
  */
 public class Inventory extends LockScope
 {
-	private final Map<Book, Integer> inventoryMap;
+	private final static Comparator<Book> BOOK_ORDER = Comparator.comparing(Book::isbn13);
+
+	private final static VarHandle        AMOUNT     = MethodHandles.arrayElementVarHandle(int[].class);
+
+
+	/*
+	 * Parallel arrays, books are sorted by ISBN.
+	 * The references are only replaced under the write lock, the amounts are changed atomically.
+	 */
+	private Book[] books  ;
+	private int[]  amounts;
 
 	public Inventory()
 	{
@@ -49,10 +77,29 @@ public class Inventory extends LockScope
 	Inventory(final Map<Book, Integer> inventoryMap)
 	{
 		super();
-		
-		this.inventoryMap = inventoryMap;
+
+		final Book[] books = inventoryMap.keySet().toArray(new Book[inventoryMap.size()]);
+		Arrays.sort(books, BOOK_ORDER);
+		final int[] amounts = new int[books.length];
+		for(int i = 0; i < books.length; i++)
+		{
+			amounts[i] = inventoryMap.get(books[i]);
+		}
+
+		this.books   = books  ;
+		this.amounts = amounts;
+	}
+
+	/**
+	 * Binary search for the slot of a book, must be called under a lock.
+	 *
+	 * @return the index of the book's slot, or <code>(-(insertion point) - 1)</code>
+	 */
+	private int indexOf(final Book book)
+	{
+		return Arrays.binarySearch(this.books, book, BOOK_ORDER);
 	}
-	
+
 	/**
 	 * Get the amount of a specific book in this inventory.
 	 *
@@ -61,14 +108,314 @@ public class Inventory extends LockScope
 	 */
 	public int amount(final Book book)
 	{
-		return this.read(() -> coalesce(
-			this.inventoryMap.get(book),
-			0
-		));
+		return this.read(() ->
+		{
+			final int index = this.indexOf(book);
+			return index >= 0
+				? (int)AMOUNT.getVolatile(this.amounts, index)
+				: 0;
+		});
+	}
+
+	/**
+	 * Takes books out of this inventory and stores the change with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.take(book, amount, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param book the book to take
+	 * @param amount the positive amount to take
+	 * @return the amount which was actually taken, never more than the available amount
+	 */
+	public int take(
+		final Book book  ,
+		final int  amount
+	)
+	{
+		return this.take(book, amount, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Takes books out of this inventory and stores the change with the given persister.
+	 *
+	 * @param book the book to take
+	 * @param amount the positive amount to take
+	 * @param persister the persister to store the change with
+	 * @return the amount which was actually taken, never more than the available amount
+	 * @see #take(Book, int)
+	 */
+	public int take(
+		final Book               book     ,
+		final int                amount   ,
+		final PersistenceStoring persister
+	)
+	{
+		requirePositive(amount, () -> "Amount must be greater than zero");
+		return this.read(() ->
+		{
+			final int taken = this.takeInternal(book, amount);
+			if(taken > 0)
+			{
+				this.store(this.amounts, persister);
+			}
+			return taken;
+		});
+	}
+
+	/**
+	 * Takes a range of books out of this inventory and stores the changes with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.takeAll(amounts, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param amounts the books and the positive amounts to take
+	 * @return the books and the amounts which were actually taken
+	 */
+	public Map<Book, Integer> takeAll(final Map<Book, Integer> amounts)
+	{
+		return this.takeAll(amounts, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Takes a range of books out of this inventory and stores the changes with the given persister.
+	 * Each book is handled on its own, so the batch is not atomic as a whole.
+	 * <p>
+	 * Use {@link Shops#takeAll(Shop, Map, PersistenceStoring)} to keep the stock aggregates of {@link Shops},
+	 * which also answer {@link Shops#inventoryOf(Book)}, up to date.
+	 *
+	 * @param amounts the books and the positive amounts to take
+	 * @param persister the persister to store the changes with
+	 * @return the books and the amounts which were actually taken
+	 * @see #takeAll(Map)
+	 */
+	public Map<Book, Integer> takeAll(
+		final Map<Book, Integer> amounts  ,
+		final PersistenceStoring persister
+	)
+	{
+		amounts.values().forEach(amount -> requirePositive(amount, () -> "Amount must be greater than zero"));
+		return this.read(() ->
+		{
+			final Map<Book, Integer> taken = new HashMap<>(amounts.size());
+			amounts.forEach((book, amount) ->
+				taken.put(book, this.takeInternal(book, amount))
+			);
+			if(taken.values().stream().anyMatch(t -> t > 0))
+			{
+				this.store(this.amounts, persister);
+			}
+			return taken;
+		});
+	}
+
+	/**
+	 * Atomically decrements the amount of a book, must be called under the read lock.
+	 */
+	private int takeInternal(
+		final Book book  ,
+		final int  amount
+	)
+	{
+		final int index = this.indexOf(book);
+		if(index < 0)
+		{
+			return 0;
+		}
+		int current, taken;
+		do
+		{
+			current = (int)AMOUNT.getVolatile(this.amounts, index);
+			if(current == 0)
+			{
+				return 0;
+			}
+			taken = Math.min(amount, current);
+		}
+		while(!AMOUNT.compareAndSet(this.amounts, index, current, current - taken));
+		return taken;
+	}
+
+	/**
+	 * Adds books to this inventory and stores the change with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.restock(book, amount, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param book the book to add
+	 * @param amount the positive amount to add
+	 * @return <code>true</code> if a new slot was created for the book
+	 */
+	public boolean restock(
+		final Book book  ,
+		final int  amount
+	)
+	{
+		return this.restock(book, amount, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Adds books to this inventory and stores the change with the given persister.
+	 * If the book isn't part of this inventory yet, a new slot is created.
+	 * <p>
+	 * Use {@link Shops#restock(Shop, Book, int, PersistenceStoring)} to keep the stock aggregates of {@link Shops},
+	 * which also answer {@link Shops#inventoryOf(Book)}, up to date.
+	 *
+	 * @param book the book to add
+	 * @param amount the positive amount to add
+	 * @param persister the persister to store the change with
+	 * @return <code>true</code> if a new slot was created for the book
+	 * @see #restock(Book, int)
+	 */
+	public boolean restock(
+		final Book               book     ,
+		final int                amount   ,
+		final PersistenceStoring persister
+	)
+	{
+		requirePositive(amount, () -> "Amount must be greater than zero");
+		final boolean restocked = this.read(() ->
+		{
+			final int index = this.indexOf(book);
+			if(index < 0)
+			{
+				return false;
+			}
+			AMOUNT.getAndAdd(this.amounts, index, amount);
+			this.store(this.amounts, persister);
+			return true;
+		});
+		if(restocked)
+		{
+			return false;
+		}
+
+		return this.write(() ->
+		{
+			final int index = this.indexOf(book);
+			if(index >= 0)
+			{
+				// added concurrently
+				this.amounts[index] += amount;
+				this.store(this.amounts, persister);
+				return false;
+			}
+
+			final int    insertionPoint = -index - 1;
+			final int    length         = this.books.length;
+			final Book[] books          = new Book[length + 1];
+			final int[]  amounts        = new int[length + 1];
+			System.arraycopy(this.books, 0, books, 0, insertionPoint);
+			System.arraycopy(this.books, insertionPoint, books, insertionPoint + 1, length - insertionPoint);
+			System.arraycopy(this.amounts, 0, amounts, 0, insertionPoint);
+			System.arraycopy(this.amounts, insertionPoint, amounts, insertionPoint + 1, length - insertionPoint);
+			books  [insertionPoint] = book  ;
+			amounts[insertionPoint] = amount;
+			this.books   = books  ;
+			this.amounts = amounts;
+
+			this.store(this, persister);
+			return true;
+		});
+	}
+
+	/**
+	 * Adds a range of books to this inventory and stores the changes with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.restockAll(amounts, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param amounts the books and the positive amounts to add
+	 */
+	public void restockAll(final Map<Book, Integer> amounts)
+	{
+		this.restockAll(amounts, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Adds a range of books to this inventory and stores the changes with the given persister.
+	 * New slots are created for books which aren't part of this inventory yet.
+	 * The whole range is added under the write lock and stored once,
+	 * so it is atomic and much cheaper than restocking each book on its own.
+	 * <p>
+	 * Use {@link Shops#restockAll(Shop, Map, PersistenceStoring)} to keep the stock aggregates of {@link Shops} up to date.
+	 *
+	 * @param amounts the books and the positive amounts to add
+	 * @param persister the persister to store the changes with
+	 * @see #restockAll(Map)
+	 */
+	public void restockAll(
+		final Map<Book, Integer> amounts  ,
+		final PersistenceStoring persister
+	)
+	{
+		amounts.values().forEach(amount ->
+			requirePositive(amount, () -> "Amount must be greater than zero")
+		);
+		if(amounts.isEmpty())
+		{
+			return;
+		}
+
+		this.write(() ->
+		{
+			final Map<Book, Integer> newBooks = new HashMap<>();
+			amounts.forEach((book, amount) ->
+			{
+				final int index = this.indexOf(book);
+				if(index >= 0)
+				{
+					this.amounts[index] += amount;
+				}
+				else
+				{
+					newBooks.put(book, amount);
+				}
+			});
+			if(newBooks.isEmpty())
+			{
+				this.store(this.amounts, persister);
+				return;
+			}
+
+			final int    length  = this.books.length;
+			final Book[] books   = Arrays.copyOf(this.books, length + newBooks.size());
+			final int[]  amounts = new int[books.length];
+			int          i       = length;
+			for(final Book book : newBooks.keySet())
+			{
+				books[i++] = book;
+			}
+			Arrays.sort(books, BOOK_ORDER);
+			for(i = 0; i < books.length; i++)
+			{
+				final int index = this.indexOf(books[i]);
+				amounts[i] = index >= 0
+					? this.amounts[index]
+					: newBooks.get(books[i]);
+			}
+			this.books   = books  ;
+			this.amounts = amounts;
+
+			this.store(this, persister);
+		});
+	}
+
+	/**
+	 * Stores the changed amounts or, after structural changes, this inventory.
+	 * <p>
+	 * The amounts are changed concurrently, but storing is serialized per inventory.
+	 * This guarantees that the last store always contains the latest state.
+	 */
+	private void store(
+		final Object             changedObject,
+		final PersistenceStoring persister
+	)
+	{
+		synchronized(this)
+		{
+			persister.store(changedObject);
+		}
 	}
 
 	/**
 	 * Executes a function with a {@link Stream} of {@link Entry}s and returns the computed value.
+	 * Books which are out of stock are not included.
 	 *
 	 * @param <T> the return type
 	 * @param streamFunction computing function
@@ -77,10 +424,81 @@ public class Inventory extends LockScope
 	public <T> T compute(final Function<Stream<Entry<Book, Integer>>, T> streamFunction)
 	{
 		return this.read(() ->
-			streamFunction.apply(
-				this.inventoryMap.entrySet().stream()
-			)
-		);
+		{
+			final Book[] books   = this.books  ;
+			final int[]  amounts = this.amounts;
+			return streamFunction.apply(
+				IntStream.range(0, books.length)
+					.mapToObj(i -> {
+						final int amount = (int)AMOUNT.getVolatile(amounts, i);
+						return amount > 0
+							? Map.entry(books[i], amount)
+							: null;
+					})
+					.filter(entry -> entry != null)
+			);
+		});
+	}
+
+	/**
+	 * Creates a {@link Stream} of {@link InventoryItem}s of all books which are in stock,
+	 * without intermediate entry objects.
+	 * This method is used exclusively by {@link Shops}.
+	 *
+	 * @param shop the shop this inventory belongs to
+	 * @return a stream of inventory items
+	 */
+	Stream<InventoryItem> items(final Shop shop)
+	{
+		return this.read(() ->
+		{
+			/*
+			 * The arrays are only replaced, never modified structurally,
+			 * so the stream can safely be consumed after the lock is released.
+			 */
+			final Book[] books   = this.books  ;
+			final int[]  amounts = this.amounts;
+			return IntStream.range(0, books.length)
+				.mapToObj(i -> {
+					final int amount = (int)AMOUNT.getVolatile(amounts, i);
+					return amount > 0
+						? new InventoryItem(shop, books[i], amount)
+						: null;
+				})
+				.filter(item -> item != null);
+		});
+	}
+
+	/**
+	 * Executes an action for every slot of this inventory, including books which are out of stock.
+	 * This method is used exclusively by {@link StockAggregates}.
+	 *
+	 * @param action the action receiving the book and its amount
+	 */
+	void forEachSlot(final ObjIntConsumer<Book> action)
+	{
+		this.read(() ->
+		{
+			for(int i = 0; i < this.books.length; i++)
+			{
+				action.accept(this.books[i], (int)AMOUNT.getVolatile(this.amounts, i));
+			}
+		});
+	}
+
+	/**
+	 * Estimates the heap size of this inventory.
+	 * This method is used exclusively by {@link InventoryResidency}.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	long estimatedSize()
+	{
+		/*
+		 * Object headers of the inventory and both arrays,
+		 * plus a compressed reference and an int per slot.
+		 */
+		return 64L + 8L * this.books.length;
 	}
 
 	/**
@@ -91,7 +509,7 @@ public class Inventory extends LockScope
 	public int slotCount()
 	{
 		return this.read(() ->
-			this.inventoryMap.size()
+			this.books.length
 		);
 	}
 
@@ -103,8 +521,8 @@ public class Inventory extends LockScope
 	 */
 	public List<Entry<Book, Integer>> slots()
 	{
-		return this.read(() ->
-			new ArrayList<>(this.inventoryMap.entrySet())
+		return this.compute(entries ->
+			entries.collect(toList())
 		);
 	}
 
@@ -117,7 +535,7 @@ public class Inventory extends LockScope
 	public List<Book> books()
 	{
 		return this.read(() ->
-			this.inventoryMap.keySet().stream().collect(toList())
+			new ArrayList<>(asList(this.books))
 		);
 	}
 
@@ -0,0 +1,290 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import static java.util.Comparator.comparingLong;
+import static java.util.stream.Collectors.toList;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.serializer.reference.Lazy;
+import org.eclipse.store.demo.bookstore.util.LazyUtils;
+
+/**
+ * Residency policy for the lazily loaded {@link Inventory}s of all {@link Shop}s.
+ * <p>
+ * Only loads of inventories are tracked here, together with their estimated heap size at that time.
+ * Accesses to already loaded inventories don't touch this type at all, apart from a lock-free hit counter;
+ * their recency is taken from the access time stamp of the shop's {@link Lazy} reference.
+ * If the estimated heap size of all loaded inventories exceeds the configured budget,
+ * the least recently used inventories are unloaded with {@link LazyUtils#clearIfStored(Lazy)},
+ * in one batch down to the low-water mark of 80% of the budget, so not every further load has to evict again.
+ * They are loaded again on demand.
+ * Inventories which were unloaded elsewhere, e.g. by the lazy reference manager, are dropped from the tracking
+ * before evicting.
+ * <p>
+ * The budget in bytes can be set with the system property <code>bookstore.inventory.budget</code>,
+ * or at runtime with {@link #budget(long)}. It defaults to a tenth of the maximum heap size.
+ * <p>
+ * All operations on this type are thread safe.
+ *
+ */
+public final class InventoryResidency
+{
+	/**
+	 * Share of the budget down to which inventories are evicted.
+	 */
+	private final static double LOW_WATER_MARK = 0.8;
+
+	private final static InventoryResidency INSTANCE = new InventoryResidency(
+		Long.getLong(
+			"bookstore.inventory.budget",
+			Runtime.getRuntime().maxMemory() / 10
+		)
+	);
+
+	/**
+	 * @return the single instance of this class
+	 */
+	public static InventoryResidency get()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Snapshot of the residency metrics.
+	 * <p>
+	 * This type is immutable and therefor inherently thread safe.
+	 */
+	public static class Metrics
+	{
+		private final long budget             ;
+		private final long residentBytes      ;
+		private final int  residentInventories;
+		private final long loads              ;
+		private final long hits               ;
+		private final long evictions          ;
+
+		Metrics(
+			final long budget             ,
+			final long residentBytes      ,
+			final int  residentInventories,
+			final long loads              ,
+			final long hits               ,
+			final long evictions
+		)
+		{
+			super();
+			this.budget              = budget             ;
+			this.residentBytes       = residentBytes      ;
+			this.residentInventories = residentInventories;
+			this.loads               = loads              ;
+			this.hits                = hits               ;
+			this.evictions           = evictions          ;
+		}
+
+		public long budget()
+		{
+			return this.budget;
+		}
+
+		public long residentBytes()
+		{
+			return this.residentBytes;
+		}
+
+		public int residentInventories()
+		{
+			return this.residentInventories;
+		}
+
+		public long loads()
+		{
+			return this.loads;
+		}
+
+		public long hits()
+		{
+			return this.hits;
+		}
+
+		public long evictions()
+		{
+			return this.evictions;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.residentInventories + " inventories resident ("
+				+ this.residentBytes + " of " + this.budget + " bytes), "
+				+ this.loads     + " loads, "
+				+ this.hits      + " hits, "
+				+ this.evictions + " evictions";
+		}
+	}
+
+
+	/**
+	 * Map with the estimated size of each resident inventory.
+	 */
+	private final Map<Shop, Long> resident = new HashMap<>(1024);
+	private final LongAdder       hits     = new LongAdder();
+	private long                  budget       ;
+	private long                  residentBytes;
+	private long                  loads        ;
+	private long                  evictions    ;
+
+	private InventoryResidency(final long budget)
+	{
+		super();
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the heap budget for all loaded inventories.
+	 *
+	 * @return the budget in bytes
+	 */
+	public synchronized long budget()
+	{
+		return this.budget;
+	}
+
+	/**
+	 * Sets the heap budget for all loaded inventories and evicts inventories if necessary.
+	 *
+	 * @param budget the new budget in bytes
+	 */
+	public synchronized void budget(final long budget)
+	{
+		this.budget = budget;
+		this.evict();
+	}
+
+	/**
+	 * Gets a snapshot of the current metrics.
+	 *
+	 * @return the metrics
+	 */
+	public synchronized Metrics metrics()
+	{
+		this.purgeUnloaded();
+		return new Metrics(
+			this.budget,
+			this.residentBytes,
+			this.resident.size(),
+			this.loads,
+			this.hits.sum(),
+			this.evictions
+		);
+	}
+
+	/**
+	 * Counts an access to an already loaded inventory, without locking.
+	 * This method is used exclusively by {@link Shop#inventory()}.
+	 */
+	void hit()
+	{
+		this.hits.increment();
+	}
+
+	/**
+	 * Tracks the load of the inventory of a shop and evicts other inventories if necessary.
+	 * This method is used exclusively by {@link Shop#inventory()}.
+	 */
+	synchronized void loaded(
+		final Shop      shop     ,
+		final Inventory inventory
+	)
+	{
+		this.loads++;
+
+		final long size     = inventory.estimatedSize();
+		final Long previous = this.resident.put(shop, size);
+		this.residentBytes += size - (previous != null ? previous : 0L);
+
+		this.evict();
+	}
+
+	/**
+	 * Stops tracking the inventory of a shop, because it was cleared elsewhere.
+	 * This method is used exclusively by {@link Shop#clear()}.
+	 */
+	synchronized void cleared(final Shop shop)
+	{
+		final Long size = this.resident.remove(shop);
+		if(size != null)
+		{
+			this.residentBytes -= size;
+		}
+	}
+
+	/**
+	 * Unloads least recently used inventories down to the low-water mark, if the budget is exceeded.
+	 * The most recently used inventory is always kept, as are inventories which are not stored yet.
+	 */
+	private void evict()
+	{
+		if(this.residentBytes <= this.budget)
+		{
+			return;
+		}
+
+		this.purgeUnloaded();
+		if(this.residentBytes <= this.budget || this.resident.size() <= 1)
+		{
+			return;
+		}
+
+		final long       lowWaterMark      = (long)(this.budget * LOW_WATER_MARK);
+		final List<Shop> leastRecentlyUsed = this.resident.keySet().stream()
+			.sorted(comparingLong(Shop::inventoryLastTouched))
+			.collect(toList());
+		for(int i = 0, last = leastRecentlyUsed.size() - 1; i < last && this.residentBytes > lowWaterMark; i++)
+		{
+			final Shop shop = leastRecentlyUsed.get(i);
+			if(shop.unloadInventory())
+			{
+				this.residentBytes -= this.resident.remove(shop);
+				this.evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Stops tracking inventories which are not loaded anymore, because they were unloaded elsewhere,
+	 * e.g. by the lazy reference manager.
+	 */
+	private void purgeUnloaded()
+	{
+		final Iterator<Map.Entry<Shop, Long>> iterator = this.resident.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			final Map.Entry<Shop, Long> entry = iterator.next();
+			if(!entry.getKey().isInventoryLoaded())
+			{
+				this.residentBytes -= entry.getValue();
+				iterator.remove();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of an ordered result, used for cursor based pagination.
+ * <p>
+ * Each element has a cursor, which marks its position in the whole result.
+ * The next page starts right after the element with the given cursor.
+ * Cursors are opaque, they should only be passed back to the method which created them.
+ * <p>
+ * This type is immutable and therefor inherently thread safe.
+ *
+ * @param <T> the element type
+ */
+public class Page<T>
+{
+	/**
+	 * Creates a page of an offset based result.
+	 * The cursor of an element is its position in the whole result.
+	 *
+	 * @param <T> the element type
+	 * @param elements the elements starting at the offset, at most one more than the limit
+	 * @param offset the position of the first element in the whole result
+	 * @param limit the maximum amount of elements of the page
+	 * @return the page
+	 */
+	public static <T> Page<T> ofOffset(
+		final List<T> elements,
+		final int     offset  ,
+		final int     limit
+	)
+	{
+		final int          size    = Math.min(elements.size(), limit);
+		final List<String> cursors = new ArrayList<>(size);
+		for(int i = 0; i < size; i++)
+		{
+			cursors.add(Integer.toString(offset + i));
+		}
+		return new Page<>(elements.subList(0, size), cursors, elements.size() > limit);
+	}
+
+	/**
+	 * Gets the offset of the first element of the page after the given cursor of an offset based result.
+	 *
+	 * @param after the cursor, may be <code>null</code> for the first page
+	 * @return the offset
+	 * @throws IllegalArgumentException if the cursor is invalid
+	 */
+	public static int offsetAfter(final String after)
+	{
+		if(after == null || after.isEmpty())
+		{
+			return 0;
+		}
+		try
+		{
+			final int position = Integer.parseInt(after);
+			if(position < 0)
+			{
+				throw new IllegalArgumentException("Invalid cursor: " + after);
+			}
+			return position + 1;
+		}
+		catch(final NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid cursor: " + after, e);
+		}
+	}
+
+
+	private final List<T>      elements;
+	private final List<String> cursors ;
+	private final boolean      hasNext ;
+
+	Page(
+		final List<T>      elements,
+		final List<String> cursors ,
+		final boolean      hasNext
+	)
+	{
+		super();
+		this.elements = Collections.unmodifiableList(new ArrayList<>(elements));
+		this.cursors  = Collections.unmodifiableList(new ArrayList<>(cursors));
+		this.hasNext  = hasNext;
+	}
+
+	/**
+	 * @return the elements of this page
+	 */
+	public List<T> elements()
+	{
+		return this.elements;
+	}
+
+	/**
+	 * @return the cursors of the elements, in the same order
+	 */
+	public List<String> cursors()
+	{
+		return this.cursors;
+	}
+
+	/**
+	 * @return <code>true</code> if there are more elements after this page
+	 */
+	public boolean hasNext()
+	{
+		return this.hasNext;
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.store.storage.embedded.types.EmbeddedStorageFoundation;
+import org.eclipse.store.storage.types.Storage;
+import org.eclipse.store.storage.types.StorageConfiguration;
+import org.eclipse.store.storage.types.StorageHousekeepingController;
+
+/**
+ * Housekeeping controller which delegates to the configured one, but allows to pause the garbage collection.
+ * <p>
+ * While paused, the garbage collection gets no time budget. This is used by the {@link BulkStorer},
+ * since bulk stored entities aren't reachable from the root until they are registered, and must not be collected meanwhile.
+ * <p>
+ * All operations on this type are thread safe.
+ */
+public final class PausableHousekeepingController implements StorageHousekeepingController
+{
+	/**
+	 * Replaces the housekeeping controller of a foundation's configuration with a pausable one,
+	 * which delegates to the configured controller.
+	 *
+	 * @param foundation the foundation to modify, before the storage manager is created
+	 */
+	public static void install(final EmbeddedStorageFoundation<?> foundation)
+	{
+		final StorageConfiguration configuration = foundation.getConfiguration();
+		foundation.setConfiguration(Storage.ConfigurationBuilder()
+			.setChannelCountProvider(configuration.channelCountProvider())
+			.setHousekeepingController(new PausableHousekeepingController(configuration.housekeepingController()))
+			.setEntityCacheEvaluator(configuration.entityCacheEvaluator())
+			.setStorageFileProvider(configuration.fileProvider())
+			.setDataFileEvaluator(configuration.dataFileEvaluator())
+			.setBackupSetup(configuration.backupSetup())
+			.createConfiguration()
+		);
+	}
+
+
+	private final StorageHousekeepingController delegate;
+
+	/**
+	 * Amount of active pauses, the garbage collection only runs if there are none.
+	 */
+	private final AtomicInteger                 pauses  = new AtomicInteger();
+
+	PausableHousekeepingController(final StorageHousekeepingController delegate)
+	{
+		super();
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Pauses the garbage collection until {@link #resumeGarbageCollection()} is called.
+	 * Pauses can be nested, the garbage collection resumes when all of them ended.
+	 */
+	void pauseGarbageCollection()
+	{
+		this.pauses.incrementAndGet();
+	}
+
+	/**
+	 * Ends a pause which was started with {@link #pauseGarbageCollection()}.
+	 */
+	void resumeGarbageCollection()
+	{
+		this.pauses.decrementAndGet();
+	}
+
+	@Override
+	public long housekeepingIntervalMs()
+	{
+		return this.delegate.housekeepingIntervalMs();
+	}
+
+	@Override
+	public long housekeepingTimeBudgetNs()
+	{
+		return this.delegate.housekeepingTimeBudgetNs();
+	}
+
+	@Override
+	public long garbageCollectionTimeBudgetNs()
+	{
+		return this.pauses.get() > 0
+			? 0L
+			: this.delegate.garbageCollectionTimeBudgetNs();
+	}
+
+	@Override
+	public long liveCheckTimeBudgetNs()
+	{
+		return this.delegate.liveCheckTimeBudgetNs();
+	}
+
+	@Override
+	public long fileCheckTimeBudgetNs()
+	{
+		return this.delegate.fileCheckTimeBudgetNs();
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.serializer.persistence.types.PersistenceStoring;
+import org.rapidpm.dependencies.core.logger.HasLogger;
+
+/**
+ * Event bus which notifies listeners about new {@link Purchase}s.
+ * <p>
+ * {@link Purchases#add(Purchase)} publishes every new purchase into a bounded queue, without blocking
+ * and without holding any lock. A single dispatcher thread delivers the queued purchases to all listeners,
+ * so slow listeners never slow down sales. If the listeners can't keep up and the queue is full,
+ * new purchases are dropped and counted in the {@link Metrics}, instead of growing the heap or blocking the writers.
+ * Purchases are only queued while there are listeners.
+ * <p>
+ * The capacity of the queue can be set with the system property <code>bookstore.events.capacity</code> (default 4096).
+ * <p>
+ * All operations on this type are thread safe.
+ *
+ */
+public final class PurchaseEvents implements HasLogger
+{
+	private final static PurchaseEvents INSTANCE = new PurchaseEvents(
+		Integer.getInteger("bookstore.events.capacity", 4096)
+	);
+
+	/**
+	 * @return the single instance of this class
+	 */
+	public static PurchaseEvents get()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Snapshot of the event bus metrics.
+	 * <p>
+	 * This type is immutable and therefor inherently thread safe.
+	 */
+	public static class Metrics
+	{
+		private final int  capacity ;
+		private final int  queued   ;
+		private final int  listeners;
+		private final long published;
+		private final long dropped  ;
+
+		Metrics(
+			final int  capacity ,
+			final int  queued   ,
+			final int  listeners,
+			final long published,
+			final long dropped
+		)
+		{
+			super();
+			this.capacity  = capacity ;
+			this.queued    = queued   ;
+			this.listeners = listeners;
+			this.published = published;
+			this.dropped   = dropped  ;
+		}
+
+		public int capacity()
+		{
+			return this.capacity;
+		}
+
+		public int queued()
+		{
+			return this.queued;
+		}
+
+		public int listeners()
+		{
+			return this.listeners;
+		}
+
+		public long published()
+		{
+			return this.published;
+		}
+
+		/**
+		 * @return the amount of purchases which were not delivered because the queue was full
+		 */
+		public long dropped()
+		{
+			return this.dropped;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.queued + " of " + this.capacity + " purchases queued, "
+				+ this.listeners + " listeners, "
+				+ this.published + " published, "
+				+ this.dropped   + " dropped";
+		}
+	}
+
+
+	private final int                      capacity ;
+	private final BlockingQueue<Purchase>  queue    ;
+	private final List<Consumer<Purchase>> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicLong               published = new AtomicLong();
+	private final AtomicLong               dropped   = new AtomicLong();
+	private Thread                         dispatcher;
+
+	private PurchaseEvents(final int capacity)
+	{
+		super();
+		this.capacity = Math.max(1, capacity);
+		this.queue    = new ArrayBlockingQueue<>(this.capacity);
+	}
+
+	/**
+	 * Registers a listener, which is called with every new purchase.
+	 * <p>
+	 * Listeners are called by the dispatcher thread and should return quickly,
+	 * since they delay the delivery to all other listeners.
+	 *
+	 * @param listener the listener to add
+	 */
+	public synchronized void subscribe(final Consumer<Purchase> listener)
+	{
+		this.listeners.add(listener);
+		if(this.dispatcher == null)
+		{
+			this.dispatcher = new Thread(this::dispatch, "bookstore-purchase-events");
+			this.dispatcher.setDaemon(true);
+			this.dispatcher.start();
+		}
+	}
+
+	/**
+	 * Removes a listener which was added with {@link #subscribe(Consumer)}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public void unsubscribe(final Consumer<Purchase> listener)
+	{
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Gets a snapshot of the current metrics.
+	 *
+	 * @return the metrics
+	 */
+	public Metrics metrics()
+	{
+		return new Metrics(
+			this.capacity,
+			this.queue.size(),
+			this.listeners.size(),
+			this.published.get(),
+			this.dropped.get()
+		);
+	}
+
+	/**
+	 * Publishes a new purchase, without blocking.
+	 * This method is used exclusively by {@link Purchases#add(Purchase, PersistenceStoring)}.
+	 */
+	void published(final Purchase purchase)
+	{
+		if(this.listeners.isEmpty())
+		{
+			return;
+		}
+
+		this.published.incrementAndGet();
+		if(!this.queue.offer(purchase))
+		{
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	private void dispatch()
+	{
+		while(true)
+		{
+			final Purchase purchase;
+			try
+			{
+				purchase = this.queue.take();
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			for(final Consumer<Purchase> listener : this.listeners)
+			{
+				try
+				{
+					listener.accept(purchase);
+				}
+				catch(final RuntimeException e)
+				{
+					this.logger().warning("Purchase listener failed: " + e);
+				}
+			}
+		}
+	}
+
+}
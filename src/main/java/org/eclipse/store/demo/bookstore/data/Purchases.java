@@ -15,6 +15,8 @@ package org.eclipse.store.demo.bookstore.data;
  * #L%
  */
 
+import static java.util.Collections.newSetFromMap;
+import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.summingInt;
 import static java.util.stream.Collectors.toList;
@@ -25,13 +27,19 @@ import static org.eclipse.store.demo.bookstore.util.LazyUtils.clearIfStored;
 import static org.javamoney.moneta.function.MonetaryFunctions.summarizingMonetary;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.IntSummaryStatistics;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -42,6 +50,8 @@ import org.eclipse.serializer.concurrency.StripeLockScope;
 import org.eclipse.serializer.persistence.types.PersistenceStoring;
 import org.eclipse.serializer.reference.Lazy;
 import org.eclipse.store.demo.bookstore.BookStoreDemo;
+import org.eclipse.store.demo.bookstore.util.Deadline;
+import org.eclipse.store.demo.bookstore.util.LazyUtils;
 import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
 
 import com.google.common.collect.Range;
@@ -52,6 +62,9 @@ import com.google.common.collect.Range;
  * This type is used to read and write the {@link Purchase}s and statistics thereof.
  * <p>
  * All operations on this type are thread safe.
+ * <p>
+ * The computing operations abort with a {@link Deadline.ExceededException}
+ * if the {@link Deadline#current()} deadline of the calling thread passes.
  *
  * @see Data#purchases()
  * @see StripeLockScope
@@ -89,9 +102,7 @@ public class Purchases extends StripeLockScope
 		)
 		{
 			final List<Object> changedObjects = new ArrayList<>();
-			addToMap(this.shopToPurchases,     purchase.shop(),     purchase, changedObjects);
-			addToMap(this.employeeToPurchases, purchase.employee(), purchase, changedObjects);
-			addToMap(this.customerToPurchases, purchase.customer(), purchase, changedObjects);
+			this.addUnstored(purchase, changedObjects);
 			if(persister != null && changedObjects.size() > 0)
 			{
 				persister.storeAll(changedObjects);
@@ -99,6 +110,22 @@ public class Purchases extends StripeLockScope
 			return this;
 		}
 
+		/**
+		 * Adds a purchase to all collections used by this class, without storing it.
+		 *
+		 * @param purchase the purchase to add
+		 * @param changedObjects collector for all objects which have to be stored
+		 */
+		void addUnstored(
+			final Purchase           purchase      ,
+			final Collection<Object> changedObjects
+		)
+		{
+			addToMap(this.shopToPurchases,     purchase.shop(),     purchase, changedObjects);
+			addToMap(this.employeeToPurchases, purchase.employee(), purchase, changedObjects);
+			addToMap(this.customerToPurchases, purchase.customer(), purchase, changedObjects);
+		}
+
 		/**
 		 * Adds a purchase to a map with a list as values.
 		 * If no list is present for the given key, it will be created.
@@ -112,7 +139,7 @@ public class Purchases extends StripeLockScope
 			final Map<K, Lazy<List<Purchase>>> map,
 			final K key,
 			final Purchase purchase,
-			final List<Object> changedObjects
+			final Collection<Object> changedObjects
 		)
 		{
 			Lazy<List<Purchase>> lazy = map.get(key);
@@ -132,6 +159,24 @@ public class Purchases extends StripeLockScope
 			}
 		}
 
+		/**
+		 * Unloads all stored purchase lists, without touching their content.
+		 * They are loaded again on demand, e.g. when further purchases are added.
+		 */
+		void release()
+		{
+			releaseMap(this.shopToPurchases);
+			releaseMap(this.employeeToPurchases);
+			releaseMap(this.customerToPurchases);
+		}
+
+		private static <K> void releaseMap(
+			final Map<K, Lazy<List<Purchase>>> map
+		)
+		{
+			map.values().forEach(LazyUtils::clearIfStored);
+		}
+
 		/**
 		 * Clears all {@link Lazy} references used by this type
 		 */
@@ -217,37 +262,60 @@ public class Purchases extends StripeLockScope
 	 */
 	private final Map<Integer, Lazy<YearlyPurchases>> yearlyPurchases = new ConcurrentHashMap<>(32);
 
-	public Purchases()
+	/**
+	 * Shops whose inventories are reduced by new purchases.
+	 */
+	private final Shops                               shops;
+
+	/**
+	 * Modification counters per year, used by {@link #version(int)}.
+	 */
+	/*
+	 * Transient means it is not persisted by EclipseStore, but created on demand.
+	 */
+	private transient volatile Map<Integer, AtomicLong> versions;
+
+	public Purchases(final Shops shops)
 	{
 		super();
+		this.shops = shops;
 	}
 	
 	/**
-	 * This method is used exclusively by the {@link RandomDataGenerator}
+	 * This method is used exclusively by the {@link RandomDataGenerator} and the {@link DataImport}
 	 * and it's not published by the {@link Purchases} interface.
+	 * <p>
+	 * Adds a chunk of purchases of a specific year and stores it. Afterwards the purchase lists are unloaded,
+	 * so the memory needed to populate a year is bounded by the chunk size, not by the amount of purchases.
+	 * The inventories are not changed.
 	 */
-	Set<Customer> init(
-		final int year,
+	void init(
+		final int                year     ,
 		final List<Purchase>     purchases,
 		final PersistenceStoring persister
 	)
 	{
-		return this.write(year, () ->
+		this.write(year, () ->
 		{
-			final YearlyPurchases yearlyPurchases = new YearlyPurchases();
-			purchases.forEach(p -> yearlyPurchases.add(p, null));
-
-			final Lazy<YearlyPurchases> lazy = Lazy.Reference(yearlyPurchases);
-			this.yearlyPurchases.put(year, lazy);
-
-			persister.store(this.yearlyPurchases);
-
-			final Set<Customer> customers = new HashSet<>(yearlyPurchases.customerToPurchases.keySet());
-
-			yearlyPurchases.clear();
-			lazy.clear();
+			final Lazy<YearlyPurchases> lazy = this.yearlyPurchases.get(year);
+			final YearlyPurchases yearlyPurchases;
+			if(lazy == null)
+			{
+				yearlyPurchases = new YearlyPurchases();
+				purchases.forEach(p -> yearlyPurchases.add(p, null));
+				this.yearlyPurchases.put(year, Lazy.Reference(yearlyPurchases));
+				persister.store(this.yearlyPurchases);
+			}
+			else
+			{
+				yearlyPurchases = lazy.get();
+				final Set<Object> changedObjects = newSetFromMap(new IdentityHashMap<>());
+				purchases.forEach(p -> yearlyPurchases.addUnstored(p, changedObjects));
+				persister.storeAll(changedObjects);
+			}
 
-			return customers;
+			yearlyPurchases.release();
+			this.modified(year);
 		});
 	}
 	
@@ -265,10 +333,15 @@ public class Purchases extends StripeLockScope
 
 	/**
 	 * Adds a new purchase and stores it with the given persister.
+	 * <p>
+	 * The sold books are taken out of the {@link Inventory} of the purchase's shop.
+	 * Afterwards the purchase is published to the listeners of the {@link PurchaseEvents}.
 	 *
 	 * @param purchase the new purchase
 	 * @param persister the persister to store it with
 	 * @see #add(Purchase)
+	 * @see Shops#takeAll(Shop, Map, PersistenceStoring)
+	 * @see PurchaseEvents
 	 */
 	public void add(
 		final Purchase           purchase ,
@@ -295,7 +368,65 @@ public class Purchases extends StripeLockScope
 					persister.store(this.yearlyPurchases);
 				});
 			}
+			this.modified(year);
 		});
+
+		this.shops.takeAll(
+			purchase.shop(),
+			purchase.items().collect(
+				groupingBy(
+					PurchaseItem::book,
+					summingInt(PurchaseItem::amount)
+				)
+			),
+			persister
+		);
+
+		PurchaseEvents.get().published(purchase);
+	}
+
+	/**
+	 * Gets the modification counter of a specific year, which is incremented whenever purchases of the year are added.
+	 * Results computed from the purchases of a year stay valid as long as its version doesn't change,
+	 * so they can be cached with the version they were computed with.
+	 * <p>
+	 * The counters are not persisted, they start at zero with every start of the application.
+	 *
+	 * @param year the year
+	 * @return the current version of the year
+	 */
+	public long version(final int year)
+	{
+		final AtomicLong version = this.ensureVersions().get(year);
+		return version != null
+			? version.get()
+			: 0L;
+	}
+
+	private void modified(final int year)
+	{
+		this.ensureVersions().computeIfAbsent(year, y -> new AtomicLong()).incrementAndGet();
+	}
+
+	private Map<Integer, AtomicLong> ensureVersions()
+	{
+		/*
+		 * Double-checked locking to reduce the overhead of acquiring a lock
+		 * by testing the locking criterion.
+		 * The field (this.versions) has to be volatile.
+		 */
+		Map<Integer, AtomicLong> versions = this.versions;
+		if(versions == null)
+		{
+			synchronized(this)
+			{
+				if((versions = this.versions) == null)
+				{
+					versions = this.versions = new ConcurrentHashMap<>(32);
+				}
+			}
+		}
+		return versions;
 	}
 
 	/**
@@ -344,6 +475,70 @@ public class Purchases extends StripeLockScope
 		);
 	}
 
+	/**
+	 * Passes the purchases of a specific year to a consumer, one shop's partition at a time, ordered by shop name.
+	 * <p>
+	 * Partitions which weren't loaded before are unloaded right after they were copied, as is the whole year at the end.
+	 * So iterating over all purchases needs only the memory of one partition.
+	 * The read lock is held only while a partition is copied, the consumer is called without holding it,
+	 * so slow consumers don't block writers.
+	 *
+	 * @param year year to iterate
+	 * @param shopSelector predicate for shops to include
+	 * @param consumer consumer of the unmodifiable purchase list of a single shop
+	 */
+	public void forEachPartition(
+		final int                      year        ,
+		final Predicate<Shop>          shopSelector,
+		final Consumer<List<Purchase>> consumer
+	)
+	{
+		final Lazy<YearlyPurchases> yearLazy = this.read(year, () ->
+			this.yearlyPurchases.get(year)
+		);
+		if(yearLazy == null)
+		{
+			return;
+		}
+
+		final boolean    yearLoaded = yearLazy.isLoaded();
+		final List<Shop> shops      = this.read(year, () ->
+			yearLazy.get().shopToPurchases.keySet().stream()
+				.filter(shopSelector)
+				.sorted(comparing(Shop::name))
+				.collect(toList())
+		);
+		for(final Shop shop : shops)
+		{
+			final List<Purchase> partition = this.read(year, () ->
+			{
+				final Lazy<List<Purchase>> lazy = yearLazy.get().shopToPurchases.get(shop);
+				if(lazy == null)
+				{
+					return null;
+				}
+				final boolean        loaded = lazy.isLoaded();
+				final List<Purchase> copy   = new ArrayList<>(lazy.get());
+				if(!loaded)
+				{
+					clearIfStored(lazy);
+				}
+				return copy;
+			});
+			if(partition != null)
+			{
+				consumer.accept(Collections.unmodifiableList(partition));
+			}
+		}
+
+		if(!yearLoaded)
+		{
+			this.write(year, () ->
+				clearIfStored(yearLazy)
+			);
+		}
+	}
+
 	/**
 	 * Executes a function with a pre-filtered {@link Stream} of {@link Purchase}s and returns the computed value.
 	 *
@@ -363,9 +558,11 @@ public class Purchases extends StripeLockScope
 			return streamFunction.apply(
 				yearlyPurchases == null
 					? Stream.empty()
-					: yearlyPurchases.shopToPurchases.values().parallelStream()
-						.map(l -> l.get())
-						.flatMap(List::stream)
+					: Deadline.guard(
+						yearlyPurchases.shopToPurchases.values().parallelStream()
+							.map(l -> l.get())
+							.flatMap(List::stream)
+					)
 			);
 		});
 	}
@@ -391,7 +588,7 @@ public class Purchases extends StripeLockScope
 			return streamFunction.apply(
 				yearlyPurchases == null
 					? Stream.empty()
-					: yearlyPurchases.byShop(shop)
+					: Deadline.guard(yearlyPurchases.byShop(shop))
 			);
 		});
 	}
@@ -417,7 +614,7 @@ public class Purchases extends StripeLockScope
 			return streamFunction.apply(
 				yearlyPurchases == null
 					? Stream.empty()
-					: yearlyPurchases.byShops(shopSelector)
+					: Deadline.guard(yearlyPurchases.byShops(shopSelector))
 			);
 		});
 	}
@@ -443,7 +640,7 @@ public class Purchases extends StripeLockScope
 			return streamFunction.apply(
 				yearlyPurchases == null
 					? Stream.empty()
-					: yearlyPurchases.byEmployee(employee)
+					: Deadline.guard(yearlyPurchases.byEmployee(employee))
 			);
 		});
 	}
@@ -469,7 +666,7 @@ public class Purchases extends StripeLockScope
 			return streamFunction.apply(
 				yearlyPurchases == null
 					? Stream.empty()
-					: yearlyPurchases.byCustomer(customer)
+					: Deadline.guard(yearlyPurchases.byCustomer(customer))
 			);
 		});
 	}
@@ -524,6 +721,70 @@ public class Purchases extends StripeLockScope
 			.collect(toList());
 	}
 
+	/**
+	 * Computes a single page of the best selling books for a specific year and optionally a country.
+	 * Books with the same amount of sales are ordered by their ISBN-13, so the ranking is stable across pages.
+	 * <p>
+	 * Only the books up to the end of the requested page are ranked, the rest is not sorted.
+	 *
+	 * @param year the year to filter by
+	 * @param country the country to filter by, or <code>null</code> for all countries
+	 * @param after the cursor of the last entry of the previous page, or <code>null</code> for the first page
+	 * @param first the maximum amount of entries of the page
+	 * @return a page of the best selling books
+	 */
+	public Page<BookSales> bestSellerList(
+		final int     year   ,
+		final Country country,
+		final String  after  ,
+		final int     first
+	)
+	{
+		final int                                         offset   = Page.offsetAfter(after);
+		final int                                         limit    = (int)Math.min(Integer.MAX_VALUE, (long)offset + first + 1);
+		final Function<Stream<Purchase>, List<BookSales>> function = purchases -> topBookSales(purchases, limit);
+		final List<BookSales>                             ranking  = country == null
+			? this.computeByYear(year, function)
+			: this.computeByShopsAndYear(shopInCountryPredicate(country), year, function);
+		return Page.ofOffset(
+			ranking.subList(Math.min(offset, ranking.size()), ranking.size()),
+			offset,
+			first
+		);
+	}
+
+	/**
+	 * Ranks the sold books and returns the top entries, using a bounded heap instead of sorting all books.
+	 */
+	private static List<BookSales> topBookSales(
+		final Stream<Purchase> purchases,
+		final int              limit
+	)
+	{
+		final Comparator<BookSales> ranking = Comparator.<BookSales>naturalOrder()
+			.thenComparing(sales -> sales.book().isbn13());
+		final PriorityQueue<BookSales> top = new PriorityQueue<>(ranking.reversed());
+		purchases
+			.flatMap(Purchase::items)
+			.collect(
+				groupingBy(
+					PurchaseItem::book,
+					summingInt(PurchaseItem::amount)
+				)
+			)
+			.forEach((book, amount) ->
+			{
+				top.add(new BookSales(book, amount));
+				if(top.size() > limit)
+				{
+					top.poll();
+				}
+			});
+		final List<BookSales> result = new ArrayList<>(top);
+		result.sort(ranking);
+		return result;
+	}
+
 	/**
 	 * Counts all purchases which were made by customers in foreign countries.
 	 *
@@ -605,6 +866,107 @@ public class Purchases extends StripeLockScope
 		);
 	}
 
+	/**
+	 * Computes a single page of the purchases which were made by customers in foreign cities,
+	 * in a specific year and optionally in shops of a specific country.
+	 * The purchases are ordered by shop name and, within a shop, in the order they were made.
+	 * <p>
+	 * Only the purchases of the shops up to the end of the requested page are loaded and filtered.
+	 *
+	 * @param year the year to filter by
+	 * @param country the country to filter by, or <code>null</code> for all countries
+	 * @param after the cursor of the last purchase of the previous page, or <code>null</code> for the first page
+	 * @param first the maximum amount of purchases of the page
+	 * @return a page of purchases
+	 * @throws IllegalArgumentException if the cursor is invalid
+	 */
+	public Page<Purchase> purchasesOfForeigners(
+		final int     year   ,
+		final Country country,
+		final String  after  ,
+		final int     first
+	)
+	{
+		/*
+		 * The cursor is the shop name and the position in the shop's purchase list, separated by a line feed.
+		 * Shop names are unique, see Shops#add, so the name is resolved to the shop, which is then compared by identity.
+		 */
+		final Shop afterShop;
+		final int  afterIndex;
+		if(after == null || after.isEmpty())
+		{
+			afterShop  = null;
+			afterIndex = -1;
+		}
+		else
+		{
+			final int separator = after.lastIndexOf('\n');
+			if(separator < 0)
+			{
+				throw new IllegalArgumentException("Invalid cursor: " + after);
+			}
+			afterShop  = this.shops.ofName(after.substring(0, separator));
+			if(afterShop == null)
+			{
+				throw new IllegalArgumentException("Invalid cursor: " + after);
+			}
+			try
+			{
+				afterIndex = Integer.parseInt(after.substring(separator + 1));
+			}
+			catch(final NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid cursor: " + after, e);
+			}
+		}
+
+		final Predicate<Shop>             shopSelector = country == null
+			? shop -> true
+			: shopInCountryPredicate(country);
+		final Predicate<? super Purchase> foreigner    = purchaseOfForeignerPredicate();
+
+		return this.read(year, () ->
+		{
+			final List<Purchase>  elements        = new ArrayList<>(Math.min(first, 1024));
+			final List<String>    cursors         = new ArrayList<>(Math.min(first, 1024));
+			final YearlyPurchases yearlyPurchases = Lazy.get(this.yearlyPurchases.get(year));
+			if(yearlyPurchases == null)
+			{
+				return new Page<>(elements, cursors, false);
+			}
+
+			final List<Shop> shops = yearlyPurchases.shopToPurchases.keySet().stream()
+				.filter(shopSelector)
+				.filter(shop -> afterShop == null || shop.name().compareTo(afterShop.name()) >= 0)
+				.sorted(comparing(Shop::name))
+				.collect(toList());
+			final Deadline deadline = Deadline.current();
+			for(final Shop shop : shops)
+			{
+				deadline.check();
+				final List<Purchase> purchases = yearlyPurchases.shopToPurchases.get(shop).get();
+				final int            start     = shop == afterShop
+					? afterIndex + 1
+					: 0;
+				for(int i = start; i < purchases.size(); i++)
+				{
+					final Purchase purchase = purchases.get(i);
+					if(!foreigner.test(purchase))
+					{
+						continue;
+					}
+					if(elements.size() == first)
+					{
+						return new Page<>(elements, cursors, true);
+					}
+					elements.add(purchase);
+					cursors.add(shop.name() + '\n' + i);
+				}
+			}
+			return new Page<>(elements, cursors, false);
+		});
+	}
+
 	private <T> T computePurchasesOfForeigners(
 		final int                            year          ,
 		final Country                        country       ,
@@ -654,6 +1016,50 @@ public class Purchases extends StripeLockScope
 		);
 	}
 
+	/**
+	 * Gets all purchases of a specific customer in a whole year, ordered by their timestamp.
+	 * Only the purchase list of the customer is visited, not the purchases of all customers.
+	 *
+	 * @param customer the customer to filter by
+	 * @param year the year to filter by
+	 * @return a list of purchases
+	 */
+	public List<Purchase> purchasesOfCustomer(
+		final Customer customer,
+		final int      year
+	)
+	{
+		return this.computeByCustomerAndYear(
+			customer,
+			year,
+			purchases -> purchases
+				.sorted(comparing(Purchase::timestamp))
+				.collect(toList())
+		);
+	}
+
+	/**
+	 * Gets all purchases sold by a specific employee in a whole year, ordered by their timestamp.
+	 * Only the purchase list of the employee is visited, not the purchases of all employees.
+	 *
+	 * @param employee the employee to filter by
+	 * @param year the year to filter by
+	 * @return a list of purchases
+	 */
+	public List<Purchase> purchasesOfEmployee(
+		final Employee employee,
+		final int      year
+	)
+	{
+		return this.computeByEmployeeAndYear(
+			employee,
+			year,
+			purchases -> purchases
+				.sorted(comparing(Purchase::timestamp))
+				.collect(toList())
+		);
+	}
+
 	/**
 	 * Computes the worldwide best performing employee in a specific year.
 	 *
@@ -21,8 +21,24 @@ package org.eclipse.store.demo.bookstore.data;
  */
 public class RandomDataAmount
 {
+	/**
+	 * Parses a data amount. Supported are the names of the predefined profiles
+	 * (minimal, small, medium, large, humongous) and scaled profiles in the form of
+	 * <pre>scaled:books=100000,customers=1000000,purchases=100000000,years=10,countries=20,skew=1.1</pre>
+	 * All parameters of a scaled profile are optional, see {@link #Scaled(int, int, int, long, int, double)}
+	 * for the default values.
+	 *
+	 * @param name the name or specification of the data amount
+	 * @return the data amount
+	 * @throws IllegalArgumentException if the name or specification is invalid
+	 */
 	public static RandomDataAmount valueOf(final String name)
 	{
+		if(name.toLowerCase().startsWith("scaled"))
+		{
+			return parseScaled(name.substring("scaled".length()));
+		}
+
 		switch(name.toLowerCase())
 		{
 			case "minimal"  : return Minimal();
@@ -33,10 +49,52 @@ public class RandomDataAmount
 			
 			default:
 				throw new IllegalArgumentException("Invalid data amount: " + name
-					+ ", supported values: minimal, small, medium, large, humongous");
+					+ ", supported values: minimal, small, medium, large, humongous, scaled:<parameters>");
 		}
 	}
 
+	private static RandomDataAmount parseScaled(final String parameters)
+	{
+		int    countries = 20;
+		int    books     = 100_000;
+		int    customers = 1_000_000;
+		long   purchases = 10_000_000L;
+		int    years     = 10;
+		double skew      = 1.0;
+
+		final String list = parameters.startsWith(":")
+			? parameters.substring(1)
+			: parameters;
+		for(final String parameter : list.split(","))
+		{
+			if(parameter.isBlank())
+			{
+				continue;
+			}
+			final String[] keyValue = parameter.split("=", 2);
+			if(keyValue.length != 2)
+			{
+				throw new IllegalArgumentException("Invalid scaled data amount parameter: " + parameter);
+			}
+			final String value = keyValue[1].trim().replace("_", "");
+			switch(keyValue[0].trim().toLowerCase())
+			{
+				case "countries": countries = Integer.parseInt(value);   break;
+				case "books"    : books     = Integer.parseInt(value);   break;
+				case "customers": customers = Integer.parseInt(value);   break;
+				case "purchases": purchases = Long.parseLong(value);     break;
+				case "years"    : years     = Integer.parseInt(value);   break;
+				case "skew"     : skew      = Double.parseDouble(value); break;
+
+				default:
+					throw new IllegalArgumentException("Invalid scaled data amount parameter: " + keyValue[0]
+						+ ", supported parameters: countries, books, customers, purchases, years, skew");
+			}
+		}
+
+		return Scaled(countries, books, customers, purchases, years, skew);
+	}
+
 
 	public static RandomDataAmount Minimal()
 	{
@@ -118,6 +176,82 @@ public class RandomDataAmount
 		);
 	}
 
+	/**
+	 * Creates a profile which approximately meets the given target amounts.
+	 * <p>
+	 * All amounts are fixed (minRatio is 1.0), the structure of every country is the same:
+	 * 50 cities with 5 shops each and 10 employees per shop.
+	 * The targets are distributed evenly over it. Duplicate random city names reduce the amount of cities,
+	 * so the actual amounts may be slightly lower.
+	 * <p>
+	 * The skew controls the popularity of books and customers with a Zipfian distribution,
+	 * 0.0 means uniform, values around 1.0 produce typical hot titles and regular customers.
+	 * The predefined profiles use a uniform distribution.
+	 *
+	 * @param countries amount of countries, limited by the supported locales of the {@link RandomDataGenerator}
+	 * @param books target amount of books
+	 * @param customers target amount of customers
+	 * @param purchases target amount of purchases
+	 * @param years amount of years with purchases
+	 * @param skew skew of the Zipfian popularity distribution
+	 * @return the scaled profile
+	 * @throws IllegalArgumentException if the books per country exceed the amount the ISBN-13 scheme of the
+	 *         {@link RandomDataGenerator} supports
+	 */
+	public static RandomDataAmount Scaled(
+		final int    countries,
+		final int    books    ,
+		final int    customers,
+		final long   purchases,
+		final int    years    ,
+		final double skew
+	)
+	{
+		final int  citiesPerCountry = 50;
+		final int  shopsPerCity     = 5;
+		final int  employeesPerShop = 10;
+		final long cities           = (long)countries * citiesPerCountry;
+		final long employees        = cities * shopsPerCity * employeesPerShop;
+		final int  booksPerCountry  = ceil(books, countries);
+		if(booksPerCountry > RandomDataGenerator.MAX_BOOKS_PER_COUNTRY)
+		{
+			throw new IllegalArgumentException("Too many books: " + books + " in " + countries + " countries, "
+				+ "at most " + RandomDataGenerator.MAX_BOOKS_PER_COUNTRY + " books per country are supported");
+		}
+
+		return new RandomDataAmount(
+			1.0, // minRatio
+			fixed(100), // maxGenres
+			countries, // maxCountries
+			fixed(50), // maxPublishersPerCountry
+			fixed(Math.max(1, booksPerCountry / 2)), // maxAuthorsPerCountry
+			booksPerCountry, // maxBooksPerCountry, exact amount
+			fixed(citiesPerCountry), // maxCitiesPerCountry
+			fixed(ceil(customers, cities)), // maxCustomersPerCity
+			fixed(shopsPerCity), // maxShopsPerCity
+			fixed(Math.min(500, books)), // maxBooksPerShop
+			Math.max(1, years), // maxAgeOfShopsInYears, exact amount
+			fixed(employeesPerShop), // maxEmployeesPerShop
+			fixed(ceil(purchases, employees * Math.max(1, years))), // maxPurchasesPerEmployeePerYear
+			fixed(2), // maxItemsPerPurchase
+			skew
+		);
+	}
+
+	/**
+	 * Converts an amount to the maximum value which produces it with a minRatio of 1.0,
+	 * since the random ranges include both bounds.
+	 */
+	private static int fixed(final int amount)
+	{
+		return Math.max(1, amount - 1);
+	}
+
+	private static int ceil(final long dividend, final long divisor)
+	{
+		return (int)Math.max(1L, (dividend + divisor - 1) / Math.max(1L, divisor));
+	}
+
 	public static RandomDataAmount Humongous()
 	{
 		return new RandomDataAmount(
@@ -154,6 +288,7 @@ public class RandomDataAmount
 	private final int    maxEmployeesPerShop           ;
 	private final int    maxPurchasesPerEmployeePerYear;
 	private final int    maxItemsPerPurchase           ;
+	private final double skew                          ;
 
 	public RandomDataAmount(
 		final double minRatio                   ,
@@ -171,6 +306,43 @@ public class RandomDataAmount
 		final int maxPurchasesPerEmployeePerYear,
 		final int maxItemsPerPurchase
 	)
+	{
+		this(
+			minRatio,
+			maxGenres,
+			maxCountries,
+			maxPublishersPerCountry,
+			maxAuthorsPerCountry,
+			maxBooksPerCountry,
+			maxCitiesPerCountry,
+			maxCustomersPerCity,
+			maxShopsPerCity,
+			maxBooksPerShop,
+			maxAgeOfShopsInYears,
+			maxEmployeesPerShop,
+			maxPurchasesPerEmployeePerYear,
+			maxItemsPerPurchase,
+			0.0 // uniform
+		);
+	}
+
+	public RandomDataAmount(
+		final double minRatio                   ,
+		final int maxGenres                     ,
+		final int maxCountries                  ,
+		final int maxPublishersPerCountry       ,
+		final int maxAuthorsPerCountry          ,
+		final int maxBooksPerCountry            ,
+		final int maxCitiesPerCountry           ,
+		final int maxCustomersPerCity           ,
+		final int maxShopsPerCity               ,
+		final int maxBooksPerShop               ,
+		final int maxAgeOfShopsInYears          ,
+		final int maxEmployeesPerShop           ,
+		final int maxPurchasesPerEmployeePerYear,
+		final int maxItemsPerPurchase           ,
+		final double skew
+	)
 	{
 		super();
 		this.minRatio                       = minRatio                      ;
@@ -187,6 +359,7 @@ public class RandomDataAmount
 		this.maxEmployeesPerShop            = maxEmployeesPerShop           ;
 		this.maxPurchasesPerEmployeePerYear = maxPurchasesPerEmployeePerYear;
 		this.maxItemsPerPurchase            = maxItemsPerPurchase           ;
+		this.skew                           = skew                          ;
 	}
 	
 	public double minRatio()
@@ -258,5 +431,13 @@ public class RandomDataAmount
 	{
 		return this.maxItemsPerPurchase;
 	}
+	
+	/**
+	 * @return the skew of the Zipfian popularity distribution of books and customers, 0.0 means uniform
+	 */
+	public double skew()
+	{
+		return this.skew;
+	}
 
 }
@@ -24,6 +24,8 @@ import java.time.Month;
 import java.time.Year;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -31,7 +33,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -47,54 +50,101 @@ import com.github.javafaker.Faker;
  * Random data generator for the {@link BookStoreDemo}'s {@link Data} root.
  * <p>
  * Data amount boundaries can be controlled with {@link RandomDataAmount}.
+ * <p>
+ * The generated data is determined by the data amount and a root seed.
+ * Every country, city and shop gets its own {@link SplittableRandom}, split off in a fixed order,
+ * so the generation runs in parallel without shared random state, but always produces the same result.
+ * {@link Faker} instances are held per thread and reseeded for every unit of work.
+ * <p>
+ * Books, the books of a shop and the customers of a city are picked with a {@link ZipfDistribution}
+ * based on {@link RandomDataAmount#skew()}, which produces hot titles and regular customers.
+ * <p>
+ * The books and shops are stored in parallel chunks by a {@link BulkStorer} before they are registered.
+ * The purchases are stored chunk by chunk when they are generated, together with the customers they reference.
+ * <p>
+ * Note that the timestamps of the purchases are relative to the current date.
  *
  */
 public class RandomDataGenerator implements HasLogger
 {
+	/**
+	 * Seed which is used if none is specified.
+	 */
+	public final static long DEFAULT_SEED = 42L;
+
+	/**
+	 * Upper bound of the amount of purchases which are generated and stored at once.
+	 */
+	private final static int PURCHASE_CHUNK_SIZE = 100_000;
+
+	/**
+	 * Upper bound of the amount of books per country, since the number of a book is encoded
+	 * with seven digits in its ISBN-13, see {@link #isbn13(int, int)}.
+	 */
+	final static int MAX_BOOKS_PER_COUNTRY = 10_000_000;
+
+
 	private static class CountryData extends ArrayList<City>
 	{
-		Faker                     faker ;
-		Locale                    locale;
-		List<Shop>                shops ;
-		Map<City, List<Customer>> people;
+		final int                   index          ;
+		Locale                      locale         ;
+		SplittableRandom            random         ;
+		SplittableRandom[]          cityRandoms    ;
+		int[]                       customerCounts ;
+		int[]                       firstCustomerId;
+		List<Book>                  books          ;
+		List<Shop>                  shops          ;
+		Map<Shop, SplittableRandom> shopRandoms    ;
+		Map<Shop, List<Book>>       shopBooks      ;
+		Map<City, List<Customer>>   people         ;
 
 		CountryData(
-			final Faker  faker ,
-			final Locale locale
+			final int              index ,
+			final Locale           locale,
+			final SplittableRandom random
 		)
 		{
 			super(512);
 
-			this.faker   = faker ;
-			this.locale  = locale;
+			this.index  = index ;
+			this.locale = locale;
+			this.random = random;
 
-			this.shops = new ArrayList<>();
+			this.shops       = new ArrayList<>();
+			this.shopRandoms = new HashMap<>();
+			this.shopBooks   = new HashMap<>();
 		}
 
-		City randomCity(final Random random)
+		City randomCity(final SplittableRandom random)
 		{
 			return this.get(random.nextInt(this.size()));
 		}
 
-		Customer randomCustomer(final Random random)
-		{
-			return this.randomCustomer(random, this.randomCity(random));
-		}
-
-		Customer randomCustomer(final Random random, final City city)
+		int customerCount()
 		{
-			final List<Customer> peopleOfCity = this.people.get(city);
-			return peopleOfCity.get(random.nextInt(peopleOfCity.size()));
+			return Arrays.stream(this.customerCounts).sum();
 		}
 
 		void dispose()
 		{
-			this.faker = null;
-			this.locale = null;
+			this.locale          = null;
+			this.random          = null;
+			this.cityRandoms     = null;
+			this.customerCounts  = null;
+			this.firstCustomerId = null;
+
+			this.books.clear();
+			this.books = null;
 
 			this.shops.clear();
 			this.shops = null;
 
+			this.shopRandoms.clear();
+			this.shopRandoms = null;
+
+			this.shopBooks.clear();
+			this.shopBooks = null;
+
 			this.people.values().forEach(List::clear);
 			this.people.clear();
 
@@ -102,68 +152,113 @@ public class RandomDataGenerator implements HasLogger
 		}
 	}
 
+
+	/**
+	 * Faker of a thread, with a random which is reseeded for every unit of work.
+	 */
+	private static class ThreadFaker
+	{
+		final Random random = new Random();
+		final Faker  faker  ;
+
+		ThreadFaker(final Locale locale)
+		{
+			super();
+			this.faker = new Faker(locale, this.random);
+		}
+
+		Faker reseed(final long seed)
+		{
+			this.random.setSeed(seed);
+			return this.faker;
+		}
+	}
+
+
+	private final Countries              countries     ;
 	private final Books                  books         ;
 	private final Shops                  shops         ;
 	private final Customers              customers     ;
 	private final Purchases              purchases     ;
 	private final RandomDataAmount       dataAmount    ;
+	private final long                   seed          ;
 	private final EmbeddedStorageManager storageManager;
+	private final BulkStorer             bulkStorer    ;
+
+	private final ThreadLocal<Map<Locale, ThreadFaker>> fakers = ThreadLocal.withInitial(HashMap::new);
 
-	private final Random                 random     = new Random()         ;
-	private final Faker                  faker      = Faker.instance()     ;
-	private final LocalDate              today      = LocalDate.now();
-	private final AtomicInteger          customerId = new AtomicInteger(0) ;
-	private final Set<String>            usedIsbns  = new HashSet<>(4096)  ;
+	private final LocalDate              today      = LocalDate.now()      ;
 	private final List<Book>             bookList   = new ArrayList<>(4096);
 
+	/**
+	 * Popularity distributions, indexed by the amount of ranks.
+	 */
+	private final Map<Integer, ZipfDistribution> distributions = new ConcurrentHashMap<>();
+
 	private final BigDecimal             minPrice   = new BigDecimal(5)                    ;
 	private final BigDecimal             maxPrice   = new BigDecimal(25)                   ;
 	private final BigDecimal             priceRange = this.maxPrice.subtract(this.minPrice);
 
 	public RandomDataGenerator(
+		final Countries              countries     ,
 		final Books                  books         ,
 		final Shops                  shops         ,
 		final Customers              customers     ,
 		final Purchases              purchases     ,
 		final RandomDataAmount       dataAmount    ,
+		final long                   seed          ,
 		final EmbeddedStorageManager storageManager
 	)
 	{
 		super();
 
+		this.countries      = countries     ;
 		this.books          = books         ;
 		this.shops          = shops         ;
 		this.customers      = customers     ;
 		this.purchases      = purchases     ;
 		this.dataAmount     = dataAmount    ;
+		this.seed           = seed          ;
 		this.storageManager = storageManager;
+		this.bulkStorer     = new BulkStorer(storageManager);
 	}
 
 	public DataMetrics generate()
 	{
-		final List<Locale> locales = this.supportedLocales();
+		final SplittableRandom root    = new SplittableRandom(this.seed);
+		final List<Locale>     locales = this.supportedLocales();
 
-		this.logger().info("+ " + locales.size() + " locales");
+		this.logger().info("+ " + locales.size() + " locales, seed " + this.seed);
 
-		final List<CountryData> countries = locales.parallelStream()
-			.map(this::createCountry)
+		/*
+		 * The country randoms are split off sequentially, before the parallel work starts.
+		 */
+		final List<CountryData> countries = IntStream.range(0, locales.size())
+			.mapToObj(i -> new CountryData(i, locales.get(i), root.split()))
 			.collect(toList());
 
-		this.createBooks(countries);
+		countries.parallelStream().forEach(this::createCities);
+
+		this.assignCustomerIds(countries);
+
+		countries.parallelStream().forEach(this::createCustomers);
+
+		this.createBooks(countries, root.split());
 
 		this.createShops(countries);
 
-		this.createPurchases(countries);
+		this.createPurchases(countries, root.split());
 
 		final DataMetrics metrics = new DataMetrics(
 			this.books.bookCount(),
-			countries.size(),
+			this.countries.countryCount(),
 			this.shops.shopCount()
 		);
 
 		this.shops.clear();
-		this.usedIsbns.clear();
+		this.customers.clear();
 		this.bookList.clear();
+		this.distributions.clear();
 		countries.forEach(CountryData::dispose);
 		countries.clear();
 
@@ -172,6 +267,20 @@ public class RandomDataGenerator implements HasLogger
 		return metrics;
 	}
 
+	/**
+	 * Gets the faker of the current thread for a specific locale, reseeded with the given seed.
+	 * The returned instance must not be used across parallel operations.
+	 */
+	private Faker faker(
+		final Locale locale,
+		final long   seed
+	)
+	{
+		return this.fakers.get()
+			.computeIfAbsent(locale, ThreadFaker::new)
+			.reseed(seed);
+	}
+
 	private List<Locale> supportedLocales()
 	{
 		final List<Locale> locales = Arrays.asList(
@@ -185,7 +294,26 @@ public class RandomDataGenerator implements HasLogger
 			new Locale("fr", "CH"),
 			new Locale("nl", "NL"),
 			new Locale("hu", "HU"),
-			new Locale("pl", "PL")
+			new Locale("pl", "PL"),
+			new Locale("es", "ES"),
+			new Locale("es", "MX"),
+			new Locale("it", "IT"),
+			new Locale("en", "AU"),
+			new Locale("en", "NZ"),
+			new Locale("en", "ZA"),
+			new Locale("en", "SG"),
+			new Locale("en", "IE"),
+			new Locale("sv", "SE"),
+			new Locale("fi", "FI"),
+			new Locale("da", "DK"),
+			new Locale("nb", "NO"),
+			new Locale("sk", "SK"),
+			new Locale("tr", "TR"),
+			new Locale("ru", "RU"),
+			new Locale("ja", "JP"),
+			new Locale("ko", "KR"),
+			new Locale("zh", "CN"),
+			new Locale("vi", "VN")
 		);
 
 		final int maxCountries = this.dataAmount.maxCountries();
@@ -197,19 +325,21 @@ public class RandomDataGenerator implements HasLogger
 			: locales.subList(0, max);
 	}
 
-	private CountryData createCountry(final Locale locale)
+	private void createCities(final CountryData countryData)
 	{
+		final Locale locale = countryData.locale;
+
 		this.logger().info("> country " + locale.getDisplayCountry());
 
-		final Faker              faker       = Faker.instance(locale);
+		final SplittableRandom   random      = countryData.random;
+		final Faker              faker       = this.faker(locale, random.nextLong());
 		final Set<String>        cityNameSet = new HashSet<>();
 		final Map<String, State> stateMap    = new HashMap<>();
 		final Country            country     = new Country(
 			locale.getDisplayCountry(Locale.ENGLISH),
 			locale.getCountry()
 		);
-		final CountryData        countryData = new CountryData(faker, locale);
-		this.randomRange(this.dataAmount.maxCitiesPerCountry()).forEach(i ->
+		this.randomRange(random, this.dataAmount.maxCitiesPerCountry()).forEach(i ->
 		{
 			final com.github.javafaker.Address fakerAddress = faker.address();
 			final String                       cityName     = fakerAddress.city();
@@ -224,108 +354,186 @@ public class RandomDataGenerator implements HasLogger
 			}
 		});
 
-		countryData.people = new HashMap<>(countryData.size(), 1.0f);
-		countryData.parallelStream().forEach(city -> {
-			countryData.people.put(city, this.createCustomers(countryData, city));
-		});
+		this.countries.addAll(countryData, this.storageManager);
+
+		/*
+		 * The amount of customers per city is determined up front,
+		 * so the customer ids can be assigned before the customers are created in parallel.
+		 */
+		countryData.cityRandoms    = new SplittableRandom[countryData.size()];
+		countryData.customerCounts = new int[countryData.size()];
+		for(int i = 0; i < countryData.size(); i++)
+		{
+			final SplittableRandom cityRandom = random.split();
+			countryData.cityRandoms[i]    = cityRandom;
+			countryData.customerCounts[i] = this.randomMax(cityRandom, this.dataAmount.maxCustomersPerCity()) + 1;
+		}
+	}
+
+	/**
+	 * Assigns the customer id ranges of all cities, in the order of the countries and cities.
+	 */
+	private void assignCustomerIds(final List<CountryData> countries)
+	{
+		int nextId = 1;
+		for(final CountryData countryData : countries)
+		{
+			countryData.firstCustomerId = new int[countryData.size()];
+			for(int i = 0; i < countryData.size(); i++)
+			{
+				countryData.firstCustomerId[i] = nextId;
+				nextId += countryData.customerCounts[i];
+			}
+		}
+	}
+
+	private void createCustomers(final CountryData countryData)
+	{
+		countryData.people = IntStream.range(0, countryData.size()).parallel()
+			.boxed()
+			.collect(toMap(
+				countryData::get,
+				i -> this.createCustomers(countryData, i)
+			));
 
 		this.logger().info(
-			"+ country " + locale.getDisplayCountry() + " [" + countryData.size() + " cities, " +
-				countryData.people.values().stream().mapToInt(List::size).sum() + " customers] "
+			"+ country " + countryData.locale.getDisplayCountry() + " [" + countryData.size() + " cities, " +
+				countryData.customerCount() + " customers] "
 		);
-
-		return countryData;
 	}
 
 	private List<Customer> createCustomers(
 		final CountryData countryData,
-		final City        city
+		final int         cityIndex
 	)
 	{
-		return this.randomRange(this.dataAmount.maxCustomersPerCity())
+		final City             city    = countryData.get(cityIndex);
+		final SplittableRandom random  = countryData.cityRandoms[cityIndex];
+		final Faker            faker   = this.faker(countryData.locale, random.nextLong());
+		final int              firstId = countryData.firstCustomerId[cityIndex];
+		return IntStream.range(0, countryData.customerCounts[cityIndex])
 			.mapToObj(i -> new Customer(
-				this.customerId.incrementAndGet(),
-				countryData.faker.name().fullName(),
-				this.createAddress(city, countryData.faker)
+				firstId + i,
+				faker.name().fullName(),
+				this.createAddress(city, faker)
 			))
 			.collect(toList());
 	}
 
-	private void createBooks(final List<CountryData> countries)
+	private void createBooks(
+		final List<CountryData> countries,
+		final SplittableRandom  random
+	)
 	{
-		final List<Genre> genres = this.createGenres();
+		final List<Genre> genres = this.createGenres(random);
 		countries.parallelStream().forEach(country ->
 		{
 			this.logger().info("> books in " + country.locale.getDisplayCountry());
 
-			final List<Publisher> publishers = this.createPublishers(country);
-			final List<Author>    authors    = this.createAuthors(country);
-			final Language        language   = new Language(country.locale);
-			final List<Book>      books      = IntStream.range(0, this.dataAmount.maxBooksPerCountry())
-				.mapToObj(i -> country.faker.book().title())
-				.map(title -> this.createBook(country, genres, publishers, authors, language, title))
+			final SplittableRandom countryRandom = country.random;
+			final Faker            faker         = this.faker(country.locale, countryRandom.nextLong());
+			final List<Publisher>  publishers    = this.createPublishers(country, countryRandom, faker);
+			final List<Author>     authors       = this.createAuthors(country, countryRandom, faker);
+			final Language         language      = new Language(country.locale);
+			country.books = IntStream.range(0, this.dataAmount.maxBooksPerCountry())
+				.mapToObj(i -> this.createBook(
+					country, i, countryRandom, genres, publishers, authors, language, faker.book().title()
+				))
 				.collect(toList());
 
-			synchronized(this.bookList)
-			{
-				this.bookList.addAll(books);
-			}
-
-			this.logger().info("+ " + books.size() + " books in "+ country.locale.getDisplayCountry());
+			this.logger().info("+ " + country.books.size() + " books in "+ country.locale.getDisplayCountry());
 		});
 
-		this.books.addAll(this.bookList, this.storageManager);
+		countries.forEach(country -> this.bookList.addAll(country.books));
+
+		this.bulkStorer.storeAll(
+			"books",
+			this.bookList,
+			() -> this.books.addAll(this.bookList, this.storageManager)
+		);
+
+		/*
+		 * The order of the book list is the popularity ranking, the first books are the hot titles.
+		 */
+		Collections.shuffle(this.bookList, new Random(random.nextLong()));
 	}
 
 	private Book createBook(
-		final CountryData     country   ,
-		final List<Genre>     genres    ,
-		final List<Publisher> publishers,
-		final List<Author>    authors   ,
-		final Language        language  ,
-		final String          title
+		final CountryData      country   ,
+		final int              nr        ,
+		final SplittableRandom random    ,
+		final List<Genre>      genres    ,
+		final List<Publisher>  publishers,
+		final List<Author>     authors   ,
+		final Language         language  ,
+		final String           title
 	)
 	{
-		String isbn;
-		synchronized(this.usedIsbns)
-		{
-			while(!this.usedIsbns.add(isbn = this.faker.code().isbn13(true)))
-			{
-				// empty loop
-			}
-		}
-		final Genre          genre         = genres.get(this.random.nextInt(genres.size()));
-		final Publisher      publisher     = publishers.get(this.random.nextInt(publishers.size()));
-		final Author         author        = authors.get(this.random.nextInt(authors.size()));
-		final MonetaryAmount purchasePrice = BookStoreDemo.money(this.randomPurchasePrice());
+		final String         isbn          = isbn13(country.index, nr);
+		final Genre          genre         = genres.get(random.nextInt(genres.size()));
+		final Publisher      publisher     = publishers.get(random.nextInt(publishers.size()));
+		final Author         author        = authors.get(random.nextInt(authors.size()));
+		final MonetaryAmount purchasePrice = BookStoreDemo.money(this.randomPurchasePrice(random));
 		final MonetaryAmount retailPrice   = BookStoreDemo.retailPrice(purchasePrice);
 		return new Book(isbn, title, author, genre, publisher, language, purchasePrice, retailPrice);
 	}
 
-	private List<Genre> createGenres()
+	/**
+	 * Creates an ISBN-13 which is unique by construction: the country index and the number of the book
+	 * are encoded in the registrant and publication elements. So no shared set of used ISBNs is necessary.
+	 */
+	private static String isbn13(
+		final int countryIndex,
+		final int nr
+	)
+	{
+		final String digits = String.format("978%02d%07d", countryIndex, nr);
+		int total = 0;
+		for(int i = 0; i < 12; i++)
+		{
+			final int digit = digits.charAt(i) - '0';
+			total += i % 2 == 0
+				? digit
+				: digit * 3;
+		}
+		final int checksum = (10 - total % 10) % 10;
+		return digits.substring(0, 3) + "-" + digits.substring(3, 5) + "-" + digits.substring(5, 8)
+			+ "-" + digits.substring(8, 12) + "-" + checksum;
+	}
+
+	private List<Genre> createGenres(final SplittableRandom random)
 	{
-		return this.randomRange(this.dataAmount.maxGenres())
-			.mapToObj(i -> this.faker.book().genre())
+		final Faker faker = this.faker(Locale.ENGLISH, random.nextLong());
+		return this.randomRange(random, this.dataAmount.maxGenres())
+			.mapToObj(i -> faker.book().genre())
 			.distinct()
 			.map(Genre::new)
 			.collect(toList());
 	}
 
-	private List<Publisher> createPublishers(final CountryData countryData)
+	private List<Publisher> createPublishers(
+		final CountryData      countryData,
+		final SplittableRandom random     ,
+		final Faker            faker
+	)
 	{
-		return this.randomRange(this.dataAmount.maxPublishersPerCountry())
-			.mapToObj(i -> countryData.faker.book().publisher())
+		return this.randomRange(random, this.dataAmount.maxPublishersPerCountry())
+			.mapToObj(i -> faker.book().publisher())
 			.distinct()
-			.map(name -> new Publisher(name, this.createAddress(countryData.randomCity(this.random), countryData.faker)))
+			.map(name -> new Publisher(name, this.createAddress(countryData.randomCity(random), faker)))
 			.collect(toList());
 	}
 
-	private List<Author> createAuthors(final CountryData countryData)
+	private List<Author> createAuthors(
+		final CountryData      countryData,
+		final SplittableRandom random     ,
+		final Faker            faker
+	)
 	{
-		return this.randomRange(this.dataAmount.maxAuthorsPerCountry())
-			.mapToObj(i -> countryData.faker.book().author())
+		return this.randomRange(random, this.dataAmount.maxAuthorsPerCountry())
+			.mapToObj(i -> faker.book().author())
 			.distinct()
-			.map(name -> new Author(name, this.createAddress(countryData.randomCity(this.random), countryData.faker)))
+			.map(name -> new Author(name, this.createAddress(countryData.randomCity(random), faker)))
 			.collect(toList());
 	}
 
@@ -336,48 +544,75 @@ public class RandomDataGenerator implements HasLogger
 			this.logger().info("> shops in " + country.locale.getDisplayCountry());
 
 			country.forEach(
-				city -> this.randomRange(this.dataAmount.maxShopsPerCity()).forEach(
-					i -> country.shops.add(this.createShop(countries, country, city, i))
-				)
+				city -> this.randomRange(country.random, this.dataAmount.maxShopsPerCity()).forEach(i ->
+				{
+					final SplittableRandom shopRandom = country.random.split();
+					final Shop             shop       = this.createShop(country, city, i, shopRandom);
+					country.shops.add(shop);
+					country.shopRandoms.put(shop, shopRandom);
+				})
 			);
 
 			this.logger().info("+ " + country.shops.size() + " shops in " + country.locale.getDisplayCountry());
 		});
 
-		countries.forEach(country -> this.shops.addAll(country.shops, this.storageManager));
+		this.bulkStorer.storeAll(
+			"shops",
+			countries.stream()
+				.flatMap(country -> country.shops.stream())
+				.collect(toList()),
+			() -> countries.forEach(country -> this.shops.addAll(country.shops, this.storageManager))
+		);
 	}
 
 	private Shop createShop(
-		final List<CountryData> countries  ,
-		final CountryData       countryData,
-		final City              city       ,
-		final int               nr
+		final CountryData      countryData,
+		final City             city       ,
+		final int              nr         ,
+		final SplittableRandom random
 	)
 	{
-		final String             name      = city.name() + " Shop " + nr;
-		final Address            address   = this.createAddress(city, countryData.faker);
-		final List<Employee>     employees = this.createEmployees(countryData, city);
-		final Map<Book, Integer> inventory = this.randomRange(this.dataAmount.maxBooksPerShop())
-			.mapToObj(i -> this.randomBook())
+		final Faker              faker     = this.faker(countryData.locale, random.nextLong());
+		// city names are only unique within a country
+		final String             name      = city.name() + " Shop " + nr + " (" + city.state().country().code() + ")";
+		final Address            address   = this.createAddress(city, faker);
+		final List<Employee>     employees = this.createEmployees(city, random, faker);
+		final ZipfDistribution   popularity = this.distribution(this.bookList.size());
+		final List<Book>         books      = this.randomRange(random, this.dataAmount.maxBooksPerShop())
+			.map(i -> popularity.sample(random))
 			.distinct()
+			.sorted()
+			.mapToObj(this.bookList::get)
+			.collect(toList());
+		final Map<Book, Integer> inventory  = books.stream()
 			.collect(toMap(
 				book -> book,
-				book -> this.random.nextInt(50) + 1
+				book -> random.nextInt(50) + 1
 			));
-		return new Shop(name, address, employees, new Inventory(inventory));
+		final Shop               shop       = new Shop(name, address, employees, new Inventory(inventory));
+		countryData.shopBooks.put(shop, books);
+		return shop;
 	}
 
-	private void createPurchases(final List<CountryData> countries)
+	private void createPurchases(
+		final List<CountryData> countries,
+		final SplittableRandom  random
+	)
 	{
 		final Set<Customer> customers = new HashSet<>(4096);
 
 		final int           thisYear  = Year.now().getValue();
-		final int           startYear = thisYear - this.randomMax(this.dataAmount.maxAgeOfShopsInYears()) + 1;
+		final int           startYear = thisYear - this.randomMax(random, this.dataAmount.maxAgeOfShopsInYears()) + 1;
 		IntStream.rangeClosed(startYear, thisYear).forEach(
 			year -> this.createPurchases(countries, year, customers)
 		);
 
-		this.customers.addAll(customers, this.storageManager);
+		this.customers.addAll(
+			customers.stream()
+				.sorted(Comparator.comparingInt(Customer::customerId))
+				.collect(toList()),
+			this.storageManager
+		);
 		customers.clear();
 	}
 
@@ -389,43 +624,60 @@ public class RandomDataGenerator implements HasLogger
 	{
 		this.logger().info("> purchases in " + year);
 
-		final List<Purchase> purchases = countries.parallelStream()
-			.flatMap(
-				country -> country.shops.stream().flatMap(
-					shop -> this.createPurchases(country, year, shop)
-				)
-			)
-			.collect(toList());
-
-		final Set<Customer> customersForYear = this.purchases.init(year, purchases, this.storageManager);
+		/*
+		 * The shops are processed in chunks, which are bounded by the maximum amount of purchases per shop.
+		 * Each chunk is stored and released before the next one is generated,
+		 * so the heap needed doesn't depend on the amount of purchases per year.
+		 */
+		final int maxPurchasesPerShop = (this.dataAmount.maxEmployeesPerShop() + 1)
+			* (this.dataAmount.maxPurchasesPerEmployeePerYear() + 1);
+		final int shopsPerChunk       = Math.max(1, PURCHASE_CHUNK_SIZE / maxPurchasesPerShop);
+
+		long purchaseCount = 0;
+		for(final CountryData country : countries)
+		{
+			for(int from = 0; from < country.shops.size(); from += shopsPerChunk)
+			{
+				/*
+				 * The purchases of a shop are created sequentially, with the shop's own random,
+				 * so the result doesn't depend on the scheduling of the parallel stream.
+				 */
+				final List<Purchase> purchases = country.shops
+					.subList(from, Math.min(from + shopsPerChunk, country.shops.size()))
+					.parallelStream()
+					.flatMap(shop -> this.createPurchases(country, year, shop, country.shopRandoms.get(shop)))
+					.collect(toList());
 
-		this.logger().info("+ " + purchases.size() + " purchases in " + year);
+				this.purchases.init(year, purchases, this.storageManager);
 
-		customers.addAll(customersForYear);
+				purchases.forEach(purchase -> customers.add(purchase.customer()));
+				purchaseCount += purchases.size();
+			}
+		}
 
-		customersForYear.clear();
-		purchases.clear();
+		this.purchases.clear(year);
 
-		System.gc();
+		this.logger().info("+ " + purchaseCount + " purchases in " + year);
 	}
 
 	private Stream<Purchase> createPurchases(
-		final CountryData countryData,
-		final int         year       ,
-		final Shop        shop
+		final CountryData      countryData,
+		final int              year       ,
+		final Shop             shop       ,
+		final SplittableRandom random
 	)
 	{
-		final List<Book>     books      = shop.inventory().books();
-		final boolean        isLeapYear = Year.of(year).isLeap();
-		final Random         random     = this.random;
+		final List<Book>       books      = countryData.shopBooks.get(shop);
+		final ZipfDistribution popularity = this.distribution(books.size());
+		final boolean          isLeapYear = Year.of(year).isLeap();
 		return shop.employees().flatMap(employee ->
-			this.randomRange(this.dataAmount.maxPurchasesPerEmployeePerYear()).mapToObj(pi -> {
+			this.randomRange(random, this.dataAmount.maxPurchasesPerEmployeePerYear()).mapToObj(pi -> {
 				final Customer customer = pi % 10 == 0
-					? countryData.randomCustomer(random)
-					: countryData.randomCustomer(random, shop.address().city());
+					? this.randomCustomer(countryData, countryData.randomCity(random), random)
+					: this.randomCustomer(countryData, shop.address().city(), random);
 				final LocalDateTime timestamp = this.randomDateTime(year, isLeapYear, random);
-				final List<PurchaseItem> items = this.randomRange(this.dataAmount.maxItemsPerPurchase())
-					.mapToObj(ii -> new PurchaseItem(books.get(random.nextInt(books.size())), random.nextInt(3) + 1))
+				final List<PurchaseItem> items = this.randomRange(random, this.dataAmount.maxItemsPerPurchase())
+					.mapToObj(ii -> new PurchaseItem(books.get(popularity.sample(random)), random.nextInt(3) + 1))
 					.collect(toList());
 				return new Purchase(shop, employee, customer, timestamp, items);
 			})
@@ -433,9 +685,9 @@ public class RandomDataGenerator implements HasLogger
 	}
 
 	private LocalDateTime randomDateTime(
-		final int     year      ,
-		final boolean isLeapYear,
-		final Random  random
+		final int              year      ,
+		final boolean          isLeapYear,
+		final SplittableRandom random
 	)
 	{
 		Month month;
@@ -462,20 +714,41 @@ public class RandomDataGenerator implements HasLogger
 		return LocalDateTime.of(year, month.getValue(), dayOfMonth, hour, minute, second);
 	}
 
-	private Book randomBook()
+	/**
+	 * Picks a customer of a city, the regular customers at the start of the city's list are picked more often.
+	 */
+	private Customer randomCustomer(
+		final CountryData      countryData,
+		final City             city       ,
+		final SplittableRandom random
+	)
 	{
-		return this.bookList.get(this.random.nextInt(this.bookList.size()));
+		final List<Customer> peopleOfCity = countryData.people.get(city);
+		return peopleOfCity.get(this.distribution(peopleOfCity.size()).sample(random));
+	}
+
+	/**
+	 * Gets the popularity distribution for a specific amount of ranks,
+	 * based on the skew of the {@link RandomDataAmount}.
+	 */
+	private ZipfDistribution distribution(final int size)
+	{
+		return this.distributions.computeIfAbsent(
+			size,
+			s -> new ZipfDistribution(s, this.dataAmount.skew())
+		);
 	}
 
 	private List<Employee> createEmployees(
-		final CountryData countryData,
-		final City        city
+		final City             city  ,
+		final SplittableRandom random,
+		final Faker            faker
 	)
 	{
-		return this.randomRange(this.dataAmount.maxEmployeesPerShop())
+		return this.randomRange(random, this.dataAmount.maxEmployeesPerShop())
 			.mapToObj(i -> new Employee(
-				countryData.faker.name().fullName(),
-				this.createAddress(city, countryData.faker)
+				faker.name().fullName(),
+				this.createAddress(city, faker)
 			))
 			.collect(toList());
 	}
@@ -494,20 +767,26 @@ public class RandomDataGenerator implements HasLogger
 		);
 	}
 
-	private BigDecimal randomPurchasePrice()
+	private BigDecimal randomPurchasePrice(final SplittableRandom random)
 	{
 		return this.minPrice
-			.add(new BigDecimal(Math.random()).multiply(this.priceRange));
+			.add(new BigDecimal(random.nextDouble()).multiply(this.priceRange));
 	}
 
-	private IntStream randomRange(final int upperBoundInclusive)
+	private IntStream randomRange(
+		final SplittableRandom random             ,
+		final int              upperBoundInclusive
+	)
 	{
-		return IntStream.rangeClosed(0, this.randomMax(upperBoundInclusive));
+		return IntStream.rangeClosed(0, this.randomMax(random, upperBoundInclusive));
 	}
 
-	private int randomMax(final int upperBoundInclusive)
+	private int randomMax(
+		final SplittableRandom random             ,
+		final int              upperBoundInclusive
+	)
 	{
-		int max = this.random.nextInt(upperBoundInclusive);
+		int max = random.nextInt(upperBoundInclusive);
 		final double minRatio;
 		if((minRatio = this.dataAmount.minRatio()) > 0)
 		{
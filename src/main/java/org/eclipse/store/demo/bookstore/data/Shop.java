@@ -52,7 +52,7 @@ public class Shop extends NamedWithAddress
 	}
 	
 	/**
-	 * Package-private constructor used by {@link RandomDataGenerator}
+	 * Package-private constructor used by {@link RandomDataGenerator} and {@link DataImport}
 	 */
 	Shop(
 		final String         name     ,
@@ -89,12 +89,23 @@ public class Shop extends NamedWithAddress
 
 	/**
 	 * Get the inventory.
+	 * <p>
+	 * The inventory is loaded on demand and may be unloaded again by the {@link InventoryResidency}.
+	 * Only loads go through the residency policy, accesses to a loaded inventory don't take any lock.
 	 *
 	 * @return the inventory
 	 */
 	public Inventory inventory()
 	{
-		return this.inventory.get();
+		if(this.inventory.isLoaded())
+		{
+			InventoryResidency.get().hit();
+			return this.inventory.get();
+		}
+
+		final Inventory inventory = this.inventory.get();
+		InventoryResidency.get().loaded(this, inventory);
+		return inventory;
 	}
 
 	/**
@@ -103,7 +114,41 @@ public class Shop extends NamedWithAddress
 	 */
 	public void clear()
 	{
-		clearIfStored(this.inventory);
+		this.unloadInventory();
+		InventoryResidency.get().cleared(this);
+	}
+
+	/**
+	 * Clears the inventory reference, if it is stored.
+	 * This method is used exclusively by {@link InventoryResidency} and {@link #clear()}.
+	 *
+	 * @return <code>true</code> if the inventory was unloaded
+	 */
+	boolean unloadInventory()
+	{
+		return clearIfStored(this.inventory).isPresent();
+	}
+
+	/**
+	 * Tells whether the inventory is currently loaded, see {@link Lazy#isLoaded()}.
+	 * This method is used exclusively by {@link InventoryResidency}.
+	 *
+	 * @return <code>true</code> if the inventory is loaded
+	 */
+	boolean isInventoryLoaded()
+	{
+		return this.inventory.isLoaded();
+	}
+
+	/**
+	 * Gets the time of the last access to the inventory, see {@link Lazy#lastTouched()}.
+	 * This method is used exclusively by {@link InventoryResidency}.
+	 *
+	 * @return the time stamp of the last access
+	 */
+	long inventoryLastTouched()
+	{
+		return this.inventory.lastTouched();
 	}
 
 }
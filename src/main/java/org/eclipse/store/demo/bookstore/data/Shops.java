@@ -14,9 +14,18 @@ package org.eclipse.store.demo.bookstore.data;
  * #L%
  */
 
+import static java.util.Collections.newSetFromMap;
+import static java.util.stream.Collectors.toList;
+import static org.eclipse.store.demo.bookstore.util.ValidationUtils.requirePositive;
+
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -30,6 +39,10 @@ import org.eclipse.store.storage.embedded.types.EmbeddedStorageManager;
  * <p>
  * This type is used to read and write the {@link Shop}s, their {@link Employee}s and {@link Inventory}s.
  * <p>
+ * Additionally it provides stock aggregates, like the total stock of a book, the shops which carry it with their amounts,
+ * or the shops which are low on stock of it, without scanning all inventories. They are persisted and maintained by {@link #takeAll(Shop, Map, PersistenceStoring)},
+ * {@link #restock(Shop, Book, int, PersistenceStoring)} and {@link #restockAll(Shop, Map, PersistenceStoring)}.
+ * <p>
  * All operations on this type are thread safe.
  *
  * @see Data#shops()
@@ -42,9 +55,31 @@ public class Shops extends LockScope
 	 */
 	private final List<Shop> shops = new ArrayList<>(1024);
 
-	public Shops()
+	/*
+	 * Multiple maps holding references to the shops, for a faster lookup.
+	 */
+	private final Map<String, Shop>        nameToShop     = new HashMap<>(1024);
+	private final Map<Country, List<Shop>> countryToShops = new HashMap<>(32);
+
+	/**
+	 * Country registry which is notified about new shops.
+	 */
+	private final Countries                countries;
+
+	/**
+	 * Stock aggregates, maintained by all inventory writes.
+	 */
+	private final StockAggregates          stockAggregates = new StockAggregates();
+
+	/**
+	 * Low stock threshold, it is not persisted but initialized with the system property.
+	 */
+	private transient volatile int         lowStockThreshold;
+
+	public Shops(final Countries countries)
 	{
 		super();
+		this.countries = countries;
 	}
 	
 	/**
@@ -61,9 +96,11 @@ public class Shops extends LockScope
 
 	/**
 	 * Adds a new shop and stores it with the given persister.
+	 * Shop names are unique, since they are used to look up shops, see {@link #ofName(String)}.
 	 *
 	 * @param shop the new shop
 	 * @param persister the persister to store it with
+	 * @throws IllegalArgumentException if a shop with the same name already exists
 	 * @see #add(Shop)
 	 */
 	public void add(
@@ -72,8 +109,13 @@ public class Shops extends LockScope
 	)
 	{
 		this.write(() -> {
+			this.validateNewNames(List.of(shop));
+			final Set<Object> changedObjects = newSetFromMap(new IdentityHashMap<>());
 			this.shops.add(shop);
-			persister.store(this.shops);
+			changedObjects.add(this.shops);
+			this.addToCollections(shop, changedObjects);
+			persister.storeAll(changedObjects);
+			this.countries.shopsAdded(List.of(shop), persister);
 		});
 	}
 
@@ -91,9 +133,12 @@ public class Shops extends LockScope
 
 	/**
 	 * Adds a range of new shops and stores it with the given persister.
+	 * Shop names are unique, since they are used to look up shops, see {@link #ofName(String)}.
+	 * If any name is already taken, none of the shops is added.
 	 *
 	 * @param shops the new shops
 	 * @param persister the persister to store them with
+	 * @throws IllegalArgumentException if a shop with the same name already exists, or two of the new shops share a name
 	 * @see #addAll(Collection)
 	 */
 	public void addAll(
@@ -102,9 +147,324 @@ public class Shops extends LockScope
 	)
 	{
 		this.write(() -> {
+			this.validateNewNames(shops);
+			final Set<Object> changedObjects = newSetFromMap(new IdentityHashMap<>());
 			this.shops.addAll(shops);
-			persister.store(this.shops);
+			changedObjects.add(this.shops);
+			shops.forEach(shop -> this.addToCollections(shop, changedObjects));
+			persister.storeAll(changedObjects);
+			this.countries.shopsAdded(shops, persister);
+		});
+	}
+
+	/**
+	 * Ensures that the names of new shops are neither taken nor used twice, must be called under the write lock.
+	 *
+	 * @param shops the new shops
+	 * @throws IllegalArgumentException if a name is already taken
+	 */
+	private void validateNewNames(final Collection<? extends Shop> shops)
+	{
+		final Set<String> names = new HashSet<>(shops.size() * 2);
+		for(final Shop shop : shops)
+		{
+			if(this.nameToShop.containsKey(shop.name()) || !names.add(shop.name()))
+			{
+				throw new IllegalArgumentException("Shop already exists: " + shop.name());
+			}
+		}
+	}
+
+	/**
+	 * Adds a shop to all lookup collections used by this implementation.
+	 *
+	 * @param shop the shop to add
+	 * @param changedObjects collector for all objects which have to be stored
+	 */
+	private void addToCollections(
+		final Shop        shop          ,
+		final Set<Object> changedObjects
+	)
+	{
+		this.nameToShop.put(shop.name(), shop);
+		changedObjects.add(this.nameToShop);
+		addToMap(this.countryToShops, shop.address().city().state().country(), shop, changedObjects);
+		this.stockAggregates.addShop(shop, changedObjects);
+	}
+
+	/**
+	 * Adds a shop to a map with a list as values.
+	 * If no list is present for the given key, it will be created.
+	 *
+	 * @param <K> the key type
+	 * @param map the collection
+	 * @param key the key
+	 * @param shop the shop to add
+	 * @param changedObjects collector for all objects which have to be stored
+	 */
+	private static <K> void addToMap(
+		final Map<K, List<Shop>> map           ,
+		final K                  key           ,
+		final Shop               shop          ,
+		final Set<Object>        changedObjects
+	)
+	{
+		List<Shop> list = map.get(key);
+		if(list == null)
+		{
+			list = new ArrayList<>(64);
+			map.put(key, list);
+			changedObjects.add(map);
+		}
+		list.add(shop);
+		changedObjects.add(list);
+	}
+
+	/**
+	 * Adds books to the inventory of a shop and stores the change with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.restock(shop, book, amount, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param shop the shop whose inventory is restocked
+	 * @param book the book to add
+	 * @param amount the positive amount to add
+	 */
+	public void restock(
+		final Shop shop  ,
+		final Book book  ,
+		final int  amount
+	)
+	{
+		this.restock(shop, book, amount, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Adds books to the inventory of a shop and stores the change with the given persister.
+	 * The stock aggregates are updated accordingly.
+	 *
+	 * @param shop the shop whose inventory is restocked
+	 * @param book the book to add
+	 * @param amount the positive amount to add
+	 * @param persister the persister to store the change with
+	 * @see Inventory#restock(Book, int, PersistenceStoring)
+	 */
+	public void restock(
+		final Shop               shop     ,
+		final Book               book     ,
+		final int                amount   ,
+		final PersistenceStoring persister
+	)
+	{
+		this.read(() ->
+			shop.inventory().restock(book, amount, persister)
+		);
+		this.stockChanged(shop, Map.of(book, amount), persister);
+	}
+
+	/**
+	 * Adds a range of books to the inventory of a shop and stores the changes with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.restockAll(shop, amounts, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param shop the shop whose inventory is restocked
+	 * @param amounts the books and the positive amounts to add
+	 */
+	public void restockAll(
+		final Shop               shop   ,
+		final Map<Book, Integer> amounts
+	)
+	{
+		this.restockAll(shop, amounts, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Adds a range of books to the inventory of a shop and stores the changes once with the given persister.
+	 * The stock aggregates are updated accordingly.
+	 *
+	 * @param shop the shop whose inventory is restocked
+	 * @param amounts the books and the positive amounts to add
+	 * @param persister the persister to store the changes with
+	 * @see Inventory#restockAll(Map, PersistenceStoring)
+	 */
+	public void restockAll(
+		final Shop               shop     ,
+		final Map<Book, Integer> amounts  ,
+		final PersistenceStoring persister
+	)
+	{
+		this.read(() ->
+			shop.inventory().restockAll(amounts, persister)
+		);
+		this.stockChanged(shop, amounts, persister);
+	}
+
+	/**
+	 * Takes a range of books out of the inventory of a shop and stores the changes with the {@link BookStoreDemo}'s {@link EmbeddedStorageManager}.
+	 * <p>
+	 * This is a synonym for:<pre>this.takeAll(shop, amounts, BookStoreDemo.getInstance().storageManager())</pre>
+	 *
+	 * @param shop the shop whose inventory is reduced
+	 * @param amounts the books and the positive amounts to take
+	 * @return the books and the amounts which were actually taken
+	 */
+	public Map<Book, Integer> takeAll(
+		final Shop               shop   ,
+		final Map<Book, Integer> amounts
+	)
+	{
+		return this.takeAll(shop, amounts, BookStoreDemo.getInstance().storageManager());
+	}
+
+	/**
+	 * Takes a range of books out of the inventory of a shop and stores the changes with the given persister.
+	 * The stock aggregates are updated accordingly.
+	 *
+	 * @param shop the shop whose inventory is reduced
+	 * @param amounts the books and the positive amounts to take
+	 * @param persister the persister to store the changes with
+	 * @return the books and the amounts which were actually taken
+	 * @see Inventory#takeAll(Map, PersistenceStoring)
+	 */
+	public Map<Book, Integer> takeAll(
+		final Shop               shop     ,
+		final Map<Book, Integer> amounts  ,
+		final PersistenceStoring persister
+	)
+	{
+		final Map<Book, Integer> taken = this.read(() ->
+			shop.inventory().takeAll(amounts, persister)
+		);
+		final Map<Book, Integer> deltas = new HashMap<>(taken.size() * 2);
+		taken.forEach((book, amount) ->
+		{
+			if(amount > 0)
+			{
+				deltas.put(book, -amount);
+			}
 		});
+		this.stockChanged(shop, deltas, persister);
+		return taken;
+	}
+
+	/**
+	 * Applies changes of the inventory of a shop to the stock aggregates and stores them.
+	 * <p>
+	 * Changes of books which are already in stock somewhere are applied under the read lock,
+	 * only the first stock of a book requires the write lock, to add it to the aggregates.
+	 */
+	private void stockChanged(
+		final Shop               shop     ,
+		final Map<Book, Integer> deltas   ,
+		final PersistenceStoring persister
+	)
+	{
+		if(deltas.isEmpty())
+		{
+			return;
+		}
+		final Map<Book, Integer> notApplied = this.read(() ->
+			this.stockAggregates.changed(shop, deltas, persister)
+		);
+		if(!notApplied.isEmpty())
+		{
+			this.write(() ->
+			{
+				/*
+				 * Another thread may have added some of the books meanwhile.
+				 */
+				final Map<Book, Integer> missing = this.stockAggregates.changed(shop, notApplied, persister);
+				if(!missing.isEmpty())
+				{
+					this.stockAggregates.added(shop, missing, persister);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gets the total amount of a specific book in stock in all shops.
+	 *
+	 * @param book the book
+	 * @return the total amount
+	 */
+	public long totalStock(final Book book)
+	{
+		return this.read(() ->
+			this.stockAggregates.totalStock(book)
+		);
+	}
+
+	/**
+	 * Gets the total amount of all books in stock in a specific shop.
+	 *
+	 * @param shop the shop
+	 * @return the total amount
+	 */
+	public long totalStock(final Shop shop)
+	{
+		return this.read(() ->
+			this.stockAggregates.totalStock(shop)
+		);
+	}
+
+	/**
+	 * Gets all shops which carry a specific book, but have less than {@link #lowStockThreshold()} copies of it.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @param book the book
+	 * @return a list of shops
+	 */
+	public List<Shop> lowStock(final Book book)
+	{
+		final int lowStockThreshold = this.lowStockThreshold();
+		return this.read(() ->
+			this.stockAggregates.lowStock(book, lowStockThreshold)
+		);
+	}
+
+	/**
+	 * Gets all books of which at least one shop has less than {@link #lowStockThreshold()} copies,
+	 * along with these shops.
+	 * Modifications to the returned map are not reflected to the backed data.
+	 *
+	 * @return the shops with low stock, indexed by book
+	 */
+	public Map<Book, List<Shop>> lowStock()
+	{
+		final int lowStockThreshold = this.lowStockThreshold();
+		return this.read(() ->
+			this.stockAggregates.lowStock(lowStockThreshold)
+		);
+	}
+
+	/**
+	 * Gets the threshold below which a shop is considered low on stock of a book.
+	 * <p>
+	 * The initial threshold can be set with the system property <code>bookstore.inventory.lowStockThreshold</code>,
+	 * it defaults to 5.
+	 *
+	 * @return the low stock threshold
+	 */
+	public int lowStockThreshold()
+	{
+		int lowStockThreshold = this.lowStockThreshold;
+		if(lowStockThreshold <= 0)
+		{
+			lowStockThreshold = this.lowStockThreshold = Integer.getInteger("bookstore.inventory.lowStockThreshold", 5);
+		}
+		return lowStockThreshold;
+	}
+
+	/**
+	 * Sets the threshold below which a shop is considered low on stock of a book.
+	 * The threshold is applied on query, so changing it is cheap.
+	 *
+	 * @param lowStockThreshold the new positive threshold
+	 */
+	public void lowStockThreshold(final int lowStockThreshold)
+	{
+		requirePositive(lowStockThreshold, () -> "Threshold must be greater than zero");
+		this.lowStockThreshold = lowStockThreshold;
 	}
 
 	/**
@@ -141,8 +501,10 @@ public class Shops extends LockScope
 	public void clear()
 	{
 		this.write(() ->
-			this.shops.forEach(Shop::clear)
-		);
+		{
+			this.shops.forEach(Shop::clear);
+			this.stockAggregates.clear();
+		});
 	}
 
 	/**
@@ -173,14 +535,68 @@ public class Shops extends LockScope
 		return this.read(() ->
 			function.apply(
 				this.shops.parallelStream().flatMap(shop ->
-					shop.inventory().compute(entries ->
-						entries.map(entry -> new InventoryItem(shop, entry.getKey(), entry.getValue()))
-					)
+					shop.inventory().items(shop)
 				)
 			)
 		);
 	}
 
+	/**
+	 * Executes a function with a {@link Stream} of the {@link InventoryItem}s of a specific book and returns the computed value.
+	 * The items are taken from the stock aggregates, see {@link #inventoryOf(Book)}.
+	 *
+	 * @param <T> the return type
+	 * @param book the book to filter by
+	 * @param streamFunction computing function
+	 * @return the computed result
+	 * @see #computeInventory(Function)
+	 */
+	public <T> T computeInventoryOf(
+		final Book                               book          ,
+		final Function<Stream<InventoryItem>, T> streamFunction
+	)
+	{
+		return streamFunction.apply(
+			this.inventoryOf(book).stream()
+		);
+	}
+
+	/**
+	 * Gets all shops which have a specific book in stock, along with the available amount, sorted by shop name.
+	 * <p>
+	 * This is a direct lookup in the persistent book to shop index of the stock aggregates,
+	 * which is updated by every inventory write, so neither an inventory has to be loaded nor all shops have to be scanned.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @param book the book to search for
+	 * @return a list of inventory items
+	 */
+	public List<InventoryItem> inventoryOf(final Book book)
+	{
+		return this.read(() ->
+			this.stockAggregates.inventoryOf(book)
+		);
+	}
+
+	/**
+	 * Executes a function with a {@link Stream} of the {@link InventoryItem}s of a specific shop and returns the computed value.
+	 *
+	 * @param <T> the return type
+	 * @param shop the shop to filter by
+	 * @param streamFunction computing function
+	 * @return the computed result
+	 * @see #computeInventory(Function)
+	 */
+	public <T> T computeInventoryOf(
+		final Shop                               shop          ,
+		final Function<Stream<InventoryItem>, T> streamFunction
+	)
+	{
+		return streamFunction.apply(
+			shop.inventory().items(shop)
+		);
+	}
+
 	/**
 	 * Gets the shop with a specific name or <code>null</code> if none was found.
 	 *
@@ -190,10 +606,61 @@ public class Shops extends LockScope
 	public Shop ofName(final String name)
 	{
 		return this.read(() ->
-			this.shops.stream()
-				.filter(shop -> shop.name().equals(name))
-				.findAny()
-				.orElse(null)
+			this.nameToShop.get(name)
+		);
+	}
+
+	/**
+	 * Gets all countries in which shops are operated as a sorted {@link List}.
+	 * Modifications to the returned list are not reflected to the backed data.
+	 *
+	 * @return all countries with shops
+	 */
+	public List<Country> countries()
+	{
+		return this.read(() ->
+			this.countryToShops.keySet().stream()
+				.sorted()
+				.collect(toList())
+		);
+	}
+
+	/**
+	 * Executes a function with a pre-filtered {@link Stream} of {@link Shop}s and returns the computed value.
+	 *
+	 * @param <T> the return type
+	 * @param country country to filter by
+	 * @param streamFunction computing function
+	 * @return the computed result
+	 * @see #compute(Function)
+	 */
+	public <T> T computeByCountry(
+		final Country                   country       ,
+		final Function<Stream<Shop>, T> streamFunction
+	)
+	{
+		return this.read(() ->
+		{
+			final List<Shop> list = this.countryToShops.get(country);
+			return streamFunction.apply(
+				list != null
+					? list.stream()
+					: Stream.empty()
+			);
+		});
+	}
+
+	/**
+	 * Gets all shops located in a specific country.
+	 *
+	 * @param country the country to search for
+	 * @return a list of shops
+	 */
+	public List<Shop> allByCountry(final Country country)
+	{
+		return this.computeByCountry(
+			country,
+			shops -> shops.collect(toList())
 		);
 	}
 
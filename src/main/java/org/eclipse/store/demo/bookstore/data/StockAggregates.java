@@ -0,0 +1,373 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import static org.eclipse.store.demo.bookstore.util.LazyUtils.clearIfStored;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.serializer.persistence.types.PersistenceStoring;
+import org.eclipse.serializer.reference.Lazy;
+
+/**
+ * Persistent stock aggregates of all {@link Inventory}s:
+ * the amount of each book per shop with the book's total stock, and the total stock per shop.
+ * <p>
+ * The amounts of a book are held in a {@link BookStock}, with the shops sorted by name in an array
+ * and the amounts in a parallel <code>int</code> array, so there are no per-entry objects.
+ * Each book stock is loaded on demand. It answers which shops carry a book, with which amounts,
+ * and which of them are low on stock, without loading any inventory.
+ * <p>
+ * The aggregates are maintained by the inventory writes of {@link Shops}, each write only stores
+ * the stocks of the changed books and shop. They are never rebuilt by scanning the inventories.
+ * <p>
+ * This type is guarded by the lock of {@link Shops}: the maps are only changed under its write lock,
+ * the stocks are changed under its read lock and their own monitor.
+ */
+final class StockAggregates
+{
+	private final static Comparator<Shop> SHOP_ORDER = Comparator.comparing(Shop::name);
+
+
+	/**
+	 * Stock of a single book in all shops which carry it.
+	 * <p>
+	 * All access is guarded by the instance's monitor.
+	 */
+	static final class BookStock
+	{
+		/*
+		 * Parallel arrays, shops are sorted by name.
+		 */
+		private Shop[] shops  ;
+		private int[]  amounts;
+		private long   total  ;
+
+		BookStock()
+		{
+			super();
+			this.shops   = new Shop[0];
+			this.amounts = new int[0];
+		}
+
+		/**
+		 * Applies a change of the amount of the book in a shop, creating a slot for the shop if necessary.
+		 *
+		 * @return <code>true</code> if the arrays were replaced
+		 */
+		boolean change(
+			final Shop shop ,
+			final int  delta
+		)
+		{
+			this.total += delta;
+			final int index = Arrays.binarySearch(this.shops, shop, SHOP_ORDER);
+			if(index >= 0)
+			{
+				this.amounts[index] += delta;
+				return false;
+			}
+
+			final int    insertionPoint = -index - 1;
+			final int    length         = this.shops.length;
+			final Shop[] shops          = new Shop[length + 1];
+			final int[]  amounts        = new int[length + 1];
+			System.arraycopy(this.shops, 0, shops, 0, insertionPoint);
+			System.arraycopy(this.shops, insertionPoint, shops, insertionPoint + 1, length - insertionPoint);
+			System.arraycopy(this.amounts, 0, amounts, 0, insertionPoint);
+			System.arraycopy(this.amounts, insertionPoint, amounts, insertionPoint + 1, length - insertionPoint);
+			shops  [insertionPoint] = shop ;
+			amounts[insertionPoint] = delta;
+			this.shops   = shops  ;
+			this.amounts = amounts;
+			return true;
+		}
+	}
+
+
+	/**
+	 * Total stock of a single shop.
+	 * <p>
+	 * All access is guarded by the instance's monitor.
+	 */
+	static final class ShopStock
+	{
+		private long total;
+
+		ShopStock()
+		{
+			super();
+		}
+	}
+
+
+	private final Map<Book, Lazy<BookStock>> bookStock = new HashMap<>(4096);
+	private final Map<Shop, ShopStock>        shopStock = new HashMap<>(1024);
+
+	StockAggregates()
+	{
+		super();
+	}
+
+	/**
+	 * Adds the whole inventory of a new shop, must be called under the write lock.
+	 *
+	 * @param shop the new shop
+	 * @param changedObjects collector for all objects which have to be stored
+	 */
+	void addShop(
+		final Shop        shop          ,
+		final Set<Object> changedObjects
+	)
+	{
+		final ShopStock shopStock = new ShopStock();
+		this.shopStock.put(shop, shopStock);
+		changedObjects.add(this.shopStock);
+		shop.inventory().forEachSlot((book, amount) ->
+		{
+			shopStock.total += amount;
+			final BookStock stock = this.ensureBookStock(book, changedObjects);
+			stock.change(shop, amount);
+			changedObjects.add(stock);
+			changedObjects.add(stock.amounts);
+		});
+	}
+
+	/**
+	 * Applies changes of the inventory of a shop and stores the changed stocks, must be called under the read lock.
+	 * Changes of books which have no stock yet are not applied, since their stock can only be created under the write lock.
+	 *
+	 * @param shop the shop whose inventory changed
+	 * @param deltas the books and the changes of their amounts
+	 * @param persister the persister to store the changes with
+	 * @return the changes which were not applied
+	 */
+	Map<Book, Integer> changed(
+		final Shop               shop     ,
+		final Map<Book, Integer> deltas   ,
+		final PersistenceStoring persister
+	)
+	{
+		final Map<Book, Integer> notApplied = new HashMap<>();
+		int                      shopDelta  = 0;
+		for(final Map.Entry<Book, Integer> entry : deltas.entrySet())
+		{
+			final Lazy<BookStock> lazy = this.bookStock.get(entry.getKey());
+			if(lazy == null)
+			{
+				notApplied.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			final BookStock stock = lazy.get();
+			synchronized(stock)
+			{
+				/*
+				 * Stored while holding the monitor, so the last store always contains the latest state.
+				 */
+				if(stock.change(shop, entry.getValue()))
+				{
+					persister.store(stock);
+				}
+				else
+				{
+					persister.storeAll(stock, stock.amounts);
+				}
+			}
+			shopDelta += entry.getValue();
+		}
+		this.shopChanged(shop, shopDelta, persister);
+		return notApplied;
+	}
+
+	/**
+	 * Applies changes of the inventory of a shop and creates missing stocks, must be called under the write lock.
+	 *
+	 * @param shop the shop whose inventory changed
+	 * @param deltas the books and the changes of their amounts
+	 * @param persister the persister to store the changes with
+	 */
+	void added(
+		final Shop               shop     ,
+		final Map<Book, Integer> deltas   ,
+		final PersistenceStoring persister
+	)
+	{
+		final Set<Object> changedObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+		int               shopDelta      = 0;
+		for(final Map.Entry<Book, Integer> entry : deltas.entrySet())
+		{
+			final BookStock stock = this.ensureBookStock(entry.getKey(), changedObjects);
+			stock.change(shop, entry.getValue());
+			changedObjects.add(stock);
+			changedObjects.add(stock.amounts);
+			shopDelta += entry.getValue();
+		}
+		persister.storeAll(changedObjects);
+		this.shopChanged(shop, shopDelta, persister);
+	}
+
+	private void shopChanged(
+		final Shop               shop     ,
+		final int                delta    ,
+		final PersistenceStoring persister
+	)
+	{
+		final ShopStock stock = this.shopStock.get(shop);
+		if(stock == null || delta == 0)
+		{
+			return;
+		}
+		synchronized(stock)
+		{
+			stock.total += delta;
+			persister.store(stock);
+		}
+	}
+
+	private BookStock ensureBookStock(
+		final Book        book          ,
+		final Set<Object> changedObjects
+	)
+	{
+		final Lazy<BookStock> lazy = this.bookStock.get(book);
+		if(lazy != null)
+		{
+			return lazy.get();
+		}
+		final BookStock stock = new BookStock();
+		this.bookStock.put(book, Lazy.Reference(stock));
+		changedObjects.add(this.bookStock);
+		return stock;
+	}
+
+	long totalStock(final Book book)
+	{
+		final BookStock stock = Lazy.get(this.bookStock.get(book));
+		if(stock == null)
+		{
+			return 0L;
+		}
+		synchronized(stock)
+		{
+			return stock.total;
+		}
+	}
+
+	long totalStock(final Shop shop)
+	{
+		final ShopStock stock = this.shopStock.get(shop);
+		if(stock == null)
+		{
+			return 0L;
+		}
+		synchronized(stock)
+		{
+			return stock.total;
+		}
+	}
+
+	/**
+	 * Gets the shops which have a book in stock, along with their amounts.
+	 */
+	List<InventoryItem> inventoryOf(final Book book)
+	{
+		final List<InventoryItem> items = new ArrayList<>();
+		final BookStock           stock = Lazy.get(this.bookStock.get(book));
+		if(stock != null)
+		{
+			synchronized(stock)
+			{
+				for(int i = 0; i < stock.shops.length; i++)
+				{
+					if(stock.amounts[i] > 0)
+					{
+						items.add(new InventoryItem(stock.shops[i], book, stock.amounts[i]));
+					}
+				}
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Gets the shops which carry a book, but have less than the threshold amount of it.
+	 */
+	List<Shop> lowStock(
+		final Book book             ,
+		final int  lowStockThreshold
+	)
+	{
+		final BookStock stock = Lazy.get(this.bookStock.get(book));
+		return stock == null
+			? new ArrayList<>()
+			: lowStock(stock, lowStockThreshold);
+	}
+
+	/**
+	 * Gets all books of which at least one shop has less than the threshold amount, along with these shops.
+	 * This loads the stocks of all books, but no inventory.
+	 */
+	Map<Book, List<Shop>> lowStock(final int lowStockThreshold)
+	{
+		final Map<Book, List<Shop>> lowStock = new HashMap<>();
+		this.bookStock.forEach((book, lazy) ->
+		{
+			final List<Shop> shops = lowStock(lazy.get(), lowStockThreshold);
+			if(!shops.isEmpty())
+			{
+				lowStock.put(book, shops);
+			}
+		});
+		return lowStock;
+	}
+
+	private static List<Shop> lowStock(
+		final BookStock stock            ,
+		final int       lowStockThreshold
+	)
+	{
+		final List<Shop> shops = new ArrayList<>();
+		synchronized(stock)
+		{
+			for(int i = 0; i < stock.shops.length; i++)
+			{
+				if(stock.amounts[i] < lowStockThreshold)
+				{
+					shops.add(stock.shops[i]);
+				}
+			}
+		}
+		return shops;
+	}
+
+	/**
+	 * Clears all {@link Lazy} references to the book stocks, must be called under the write lock.
+	 */
+	void clear()
+	{
+		this.bookStock.values().forEach(lazy ->
+			clearIfStored(lazy)
+		);
+	}
+
+}
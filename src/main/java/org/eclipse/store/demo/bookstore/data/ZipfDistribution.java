@@ -0,0 +1,77 @@
+package org.eclipse.store.demo.bookstore.data;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Zipfian distribution of ranks, used by the {@link RandomDataGenerator} to model popularity.
+ * <p>
+ * The probability of rank <code>k</code> (zero based) is proportional to <code>1 / (k + 1)^skew</code>,
+ * so low ranks are picked a lot more often than high ones. A skew of 0 results in a uniform distribution.
+ * <p>
+ * This type is immutable and therefor inherently thread safe.
+ */
+final class ZipfDistribution
+{
+	private final int      size      ;
+	private final double[] cumulative;
+
+	ZipfDistribution(
+		final int    size,
+		final double skew
+	)
+	{
+		super();
+		this.size = size;
+		if(skew > 0.0)
+		{
+			this.cumulative = new double[size];
+			double total = 0.0;
+			for(int k = 0; k < size; k++)
+			{
+				total += 1.0 / Math.pow(k + 1, skew);
+				this.cumulative[k] = total;
+			}
+		}
+		else
+		{
+			this.cumulative = null;
+		}
+	}
+
+	/**
+	 * Picks a random rank.
+	 *
+	 * @param random the random to use
+	 * @return a rank between 0 (inclusive) and the size (exclusive)
+	 */
+	int sample(final SplittableRandom random)
+	{
+		if(this.cumulative == null)
+		{
+			return random.nextInt(this.size);
+		}
+
+		final double value = random.nextDouble() * this.cumulative[this.size - 1];
+		final int    index = Arrays.binarySearch(this.cumulative, value);
+		return Math.min(
+			index >= 0 ? index : -index - 1,
+			this.size - 1
+		);
+	}
+
+}
@@ -0,0 +1,184 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.eclipse.store.demo.bookstore.data.Page;
+
+/**
+ * Relay style connection, the GraphQL representation of a {@link Page}.
+ * <p>
+ * The cursors of the page are Base64 encoded, to keep them opaque for clients.
+ * <p>
+ * This type is immutable and therefor inherently thread safe.
+ *
+ * @param <T> the node type
+ */
+public class Connection<T>
+{
+	/**
+	 * Default amount of nodes of a page.
+	 */
+	public final static int DEFAULT_FIRST = 20;
+
+	/**
+	 * Maximum amount of nodes of a page.
+	 */
+	public final static int MAX_FIRST     = 1000;
+
+
+	public static class Edge<T>
+	{
+		private final String cursor;
+		private final T      node  ;
+
+		Edge(
+			final String cursor,
+			final T      node
+		)
+		{
+			super();
+			this.cursor = cursor;
+			this.node   = node  ;
+		}
+
+		public String cursor()
+		{
+			return this.cursor;
+		}
+
+		public T node()
+		{
+			return this.node;
+		}
+	}
+
+
+	public static class PageInfo
+	{
+		private final boolean hasNextPage;
+		private final String  endCursor  ;
+
+		PageInfo(
+			final boolean hasNextPage,
+			final String  endCursor
+		)
+		{
+			super();
+			this.hasNextPage = hasNextPage;
+			this.endCursor   = endCursor  ;
+		}
+
+		public boolean hasNextPage()
+		{
+			return this.hasNextPage;
+		}
+
+		public String endCursor()
+		{
+			return this.endCursor;
+		}
+	}
+
+
+	/**
+	 * Creates the connection of a page.
+	 *
+	 * @param <T> the node type
+	 * @param page the page
+	 * @return the connection
+	 */
+	public static <T> Connection<T> of(final Page<T> page)
+	{
+		final List<Edge<T>> edges = new ArrayList<>(page.elements().size());
+		for(int i = 0; i < page.elements().size(); i++)
+		{
+			edges.add(new Edge<>(encodeCursor(page.cursors().get(i)), page.elements().get(i)));
+		}
+		return new Connection<>(
+			edges,
+			new PageInfo(
+				page.hasNext(),
+				edges.isEmpty()
+					? null
+					: edges.get(edges.size() - 1).cursor()
+			)
+		);
+	}
+
+	/**
+	 * @param first the requested amount of nodes, may be <code>null</code>
+	 * @return the amount of nodes of the page
+	 * @throws IllegalArgumentException if the amount is negative or exceeds {@link #MAX_FIRST}
+	 */
+	public static int first(final Integer first)
+	{
+		if(first == null)
+		{
+			return DEFAULT_FIRST;
+		}
+		if(first < 0 || first > MAX_FIRST)
+		{
+			throw new IllegalArgumentException("first must be between 0 and " + MAX_FIRST);
+		}
+		return first;
+	}
+
+	/**
+	 * @param cursor an opaque cursor of a connection, may be <code>null</code>
+	 * @return the cursor of the page, or <code>null</code>
+	 * @throws IllegalArgumentException if the cursor is invalid
+	 */
+	public static String decodeCursor(final String cursor)
+	{
+		return cursor == null
+			? null
+			: new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+	}
+
+	private static String encodeCursor(final String cursor)
+	{
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private final List<Edge<T>> edges   ;
+	private final PageInfo      pageInfo;
+
+	Connection(
+		final List<Edge<T>> edges   ,
+		final PageInfo      pageInfo
+	)
+	{
+		super();
+		this.edges    = edges   ;
+		this.pageInfo = pageInfo;
+	}
+
+	public List<Edge<T>> edges()
+	{
+		return this.edges;
+	}
+
+	public PageInfo pageInfo()
+	{
+		return this.pageInfo;
+	}
+
+}
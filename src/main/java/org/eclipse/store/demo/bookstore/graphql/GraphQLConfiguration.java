@@ -0,0 +1,183 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.Map;
+
+import org.eclipse.store.demo.bookstore.util.Deadline;
+import org.springframework.boot.autoconfigure.graphql.GraphQlSourceBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.graphql.execution.DataFetcherExceptionResolver;
+import org.springframework.graphql.execution.ErrorType;
+import org.springframework.graphql.execution.RuntimeWiringConfigurer;
+
+import graphql.GraphqlErrorBuilder;
+import graphql.analysis.FieldComplexityCalculator;
+import graphql.analysis.FieldComplexityEnvironment;
+import graphql.analysis.MaxQueryComplexityInstrumentation;
+import graphql.analysis.MaxQueryDepthInstrumentation;
+import graphql.scalars.ExtendedScalars;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * Limits for GraphQL requests, which protect the latency of other clients against expensive queries.
+ * <p>
+ * Requests are validated before execution against a maximum depth and a maximum cost.
+ * The cost of a field is 1 plus the cost of its selection, multiplied by the estimated size for list fields:
+ * the <code>first</code> argument for pages, {@link #NESTED_LIST_SIZES} for the small lists of an entity,
+ * and <code>bookstore.graphql.listSize</code> (default 1000) for all other lists, e.g. all purchases of a year.
+ * <p>
+ * Accepted requests are aborted after a timeout, see {@link QueryTimeoutInstrumentation}.
+ * <p>
+ * Parsed and validated documents are cached, and can be requested by their hash, see {@link PersistedQueries}.
+ * <p>
+ * The limits can be set with the system properties <code>bookstore.graphql.maxDepth</code> (default 12),
+ * <code>bookstore.graphql.maxCost</code> (default 100000) and <code>bookstore.graphql.timeout</code>
+ * in milliseconds (default 10000), 0 disables the respective limit.
+ */
+@Configuration
+public class GraphQLConfiguration
+{
+	/**
+	 * Estimated sizes of the lists held by a single entity, like the items of a purchase or the purchases of a customer.
+	 */
+	private final static Map<String, Integer> NESTED_LIST_SIZES = Map.of(
+		"Purchase.itemsList",           5,
+		"Shop.employeesList",          10,
+		"Query.purchasesByCustomer",   20,
+		"Query.purchasesByEmployee",  150,
+		"Query.inventoryOfBook",      100
+	);
+
+	public GraphQLConfiguration()
+	{
+		super();
+	}
+
+	@Bean
+	public MaxQueryDepthInstrumentation maxQueryDepthInstrumentation()
+	{
+		final int maxDepth = Integer.getInteger("bookstore.graphql.maxDepth", 12);
+		return new MaxQueryDepthInstrumentation(maxDepth > 0 ? maxDepth : Integer.MAX_VALUE);
+	}
+
+	@Bean
+	public MaxQueryComplexityInstrumentation maxQueryComplexityInstrumentation()
+	{
+		final int maxCost  = Integer.getInteger("bookstore.graphql.maxCost", 100_000);
+		final int listSize = Integer.getInteger("bookstore.graphql.listSize", 1_000);
+		return new MaxQueryComplexityInstrumentation(
+			maxCost > 0 ? maxCost : Integer.MAX_VALUE,
+			costCalculator(listSize)
+		);
+	}
+
+	@Bean
+	public QueryTimeoutInstrumentation queryTimeoutInstrumentation()
+	{
+		return new QueryTimeoutInstrumentation(
+			Long.getLong("bookstore.graphql.timeout", 10_000L)
+		);
+	}
+
+	/**
+	 * Registers the <code>Long</code> scalar, for numbers which can exceed the 32-bit range of <code>Int</code>.
+	 */
+	@Bean
+	public RuntimeWiringConfigurer scalarsConfigurer()
+	{
+		return wiring -> wiring.scalar(ExtendedScalars.GraphQLLong);
+	}
+
+	@Bean
+	public GraphQlSourceBuilderCustomizer persistedQueriesCustomizer(final PersistedQueries persistedQueries)
+	{
+		return builder -> builder.configureGraphQl(
+			graphQl -> graphQl.preparsedDocumentProvider(persistedQueries)
+		);
+	}
+
+	/**
+	 * Reports aborted computations and invalid arguments, like page cursors, with their message
+	 * instead of a generic internal error.
+	 */
+	@Bean
+	public DataFetcherExceptionResolver queryLimitsExceptionResolver()
+	{
+		return DataFetcherExceptionResolver.forSingleError((exception, environment) ->
+		{
+			if(exception instanceof Deadline.ExceededException)
+			{
+				return GraphqlErrorBuilder.newError(environment)
+					.errorType(ErrorType.INTERNAL_ERROR)
+					.message(exception.getMessage())
+					.build();
+			}
+			if(exception instanceof IllegalArgumentException)
+			{
+				return GraphqlErrorBuilder.newError(environment)
+					.errorType(ErrorType.BAD_REQUEST)
+					.message(exception.getMessage())
+					.build();
+			}
+			return null;
+		});
+	}
+
+	private static FieldComplexityCalculator costCalculator(final int listSize)
+	{
+		return (environment, childCost) ->
+		{
+			final long cost = 1L + (long)childCost * listMultiplier(environment, listSize);
+			return (int)Math.min(Integer.MAX_VALUE, cost);
+		};
+	}
+
+	private static int listMultiplier(
+		final FieldComplexityEnvironment environment,
+		final int                        listSize
+	)
+	{
+		if(!(GraphQLTypeUtil.unwrapNonNull(environment.getFieldDefinition().getType()) instanceof GraphQLList))
+		{
+			return 1;
+		}
+
+		/*
+		 * The edges of a connection are limited by the first argument of the connection field.
+		 */
+		final FieldComplexityEnvironment pageEnvironment = "edges".equals(environment.getField().getName())
+			&& environment.getParentEnvironment() != null
+				? environment.getParentEnvironment()
+				: environment;
+		final Object first = pageEnvironment.getArguments().get("first");
+		if(first instanceof Integer)
+		{
+			return Math.max(1, (Integer)first);
+		}
+		if(pageEnvironment != environment)
+		{
+			return Connection.DEFAULT_FIRST;
+		}
+
+		return NESTED_LIST_SIZES.getOrDefault(
+			environment.getParentType().getName() + '.' + environment.getField().getName(),
+			listSize
+		);
+	}
+
+}
@@ -18,64 +18,145 @@ import org.eclipse.store.demo.bookstore.BookStoreDemo;
 import org.eclipse.store.demo.bookstore.data.Book;
 import org.eclipse.store.demo.bookstore.data.BookSales;
 import org.eclipse.store.demo.bookstore.data.Country;
+import org.eclipse.store.demo.bookstore.data.Customer;
 import org.eclipse.store.demo.bookstore.data.Employee;
+import org.eclipse.store.demo.bookstore.data.InventoryItem;
+import org.eclipse.store.demo.bookstore.data.Page;
 import org.eclipse.store.demo.bookstore.data.Purchase;
+import org.eclipse.store.demo.bookstore.data.Purchases;
+import org.eclipse.store.demo.bookstore.data.Shop;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.graphql.data.method.annotation.Argument;
 import org.springframework.graphql.data.method.annotation.QueryMapping;
+import org.springframework.graphql.data.method.annotation.SubscriptionMapping;
 import org.springframework.stereotype.Controller;
 
 import java.util.Collections;
 import java.util.List;
 
+import reactor.core.publisher.Flux;
+
 @Controller
 public class GraphQLEndpoint {
 	@Autowired
-	private BookStoreDemo bookStoreDemo;
+	private BookStoreDemo    bookStoreDemo;
+
+	@Autowired
+	private QueryResultCache queryResultCache;
+
+	@Autowired
+	private PurchaseFeed     purchaseFeed;
+
+	@Autowired
+	private PersistedQueries persistedQueries;
+
+	/**
+	 * Maximum amount of elements of the plain list fields, which have no pagination.
+	 * Larger results have to be fetched with the connection fields, e.g. <code>booksByNameConnection</code>.
+	 */
+	private final static int LIST_LIMIT = Connection.MAX_FIRST;
 
 	private Country countryByCode(final String countryCode)
 	{
-		return this.bookStoreDemo.data().shops().compute(shops ->
-			shops
-				.map(s -> s.address().city().state().country())
-				.filter(c -> c.code().equalsIgnoreCase(countryCode))
-				.findAny()
-				.orElse(null)
-		);
+		return this.bookStoreDemo.data().countries().ofCode(countryCode);
 	}
 
 	@QueryMapping
 	public List<Book> booksByName(@Argument String name)
 	{
-		return this.bookStoreDemo.data().books().searchByTitle(name);
+		return this.bookStoreDemo.data().books().searchByTitle(name, null, LIST_LIMIT).elements();
 	}
 
 	@QueryMapping
 	public Employee employeeOfTheYear(@Argument int year)
 	{
-		return this.bookStoreDemo.data().purchases().employeeOfTheYear(year);
+		final Purchases purchases = this.bookStoreDemo.data().purchases();
+		return this.queryResultCache.get(
+			purchases,
+			year,
+			"employeeOfTheYear",
+			new Object[0],
+			() -> purchases.employeeOfTheYear(year)
+		);
 	}
 
 	@QueryMapping
 	public List<BookSales> bestSellerList(@Argument int year)
 	{
-		return this.bookStoreDemo.data().purchases().bestSellerList(year);
+		final Purchases purchases = this.bookStoreDemo.data().purchases();
+		return this.queryResultCache.get(
+			purchases,
+			year,
+			"bestSellerList",
+			new Object[0],
+			() -> Collections.unmodifiableList(purchases.bestSellerList(year, null, null, LIST_LIMIT).elements())
+		);
 	}
 
 	@QueryMapping
 	public List<BookSales> bestSellerListByCountry(@Argument int year, @Argument String countryCode)
 	{
 		final Country country = this.countryByCode(countryCode);
-		return country == null
+		if(country == null)
+		{
+			return Collections.emptyList();
+		}
+		final Purchases purchases = this.bookStoreDemo.data().purchases();
+		return this.queryResultCache.get(
+			purchases,
+			year,
+			"bestSellerListByCountry",
+			new Object[] {country.code()},
+			() -> Collections.unmodifiableList(purchases.bestSellerList(year, country, null, LIST_LIMIT).elements())
+		);
+	}
+
+	@QueryMapping
+	public QueryResultCache.Metrics queryResultCacheMetrics()
+	{
+		return this.queryResultCache.metrics();
+	}
+
+	@QueryMapping
+	public PersistedQueries.Metrics documentCacheMetrics()
+	{
+		return this.persistedQueries.metrics();
+	}
+
+	@QueryMapping
+	public Long totalStockOfBook(@Argument String isbn13)
+	{
+		final Book book = this.bookStoreDemo.data().books().ofIsbn13(isbn13);
+		return book == null
+			? null
+			: this.bookStoreDemo.data().shops().totalStock(book)
+		;
+	}
+
+	@QueryMapping
+	public Long totalStockOfShop(@Argument String shopName)
+	{
+		final Shop shop = this.bookStoreDemo.data().shops().ofName(shopName);
+		return shop == null
+			? null
+			: this.bookStoreDemo.data().shops().totalStock(shop)
+		;
+	}
+
+	@QueryMapping
+	public List<Shop> lowStockShops(@Argument String isbn13)
+	{
+		final Book book = this.bookStoreDemo.data().books().ofIsbn13(isbn13);
+		return book == null
 			? Collections.emptyList()
-			: this.bookStoreDemo.data().purchases().bestSellerList(year, country)
+			: this.bookStoreDemo.data().shops().lowStock(book)
 		;
 	}
 
 	@QueryMapping
 	public List<Purchase> purchasesOfForeigners(@Argument int year)
 	{
-		return this.bookStoreDemo.data().purchases().purchasesOfForeigners(year);
+		return this.bookStoreDemo.data().purchases().purchasesOfForeigners(year, null, null, LIST_LIMIT).elements();
 	}
 
 	@QueryMapping
@@ -84,8 +165,159 @@ public class GraphQLEndpoint {
 		final Country country = this.countryByCode(countryCode);
 		return country == null
 			? Collections.emptyList()
-			: this.bookStoreDemo.data().purchases().purchasesOfForeigners(year, country)
+			: this.bookStoreDemo.data().purchases().purchasesOfForeigners(year, country, null, LIST_LIMIT).elements()
 		;
 	}
 
+	@QueryMapping
+	public Money revenueOfShopInYear(@Argument String shopName, @Argument int year)
+	{
+		final Shop shop = this.bookStoreDemo.data().shops().ofName(shopName);
+		if(shop == null)
+		{
+			return null;
+		}
+		final Purchases purchases = this.bookStoreDemo.data().purchases();
+		return Money.of(this.queryResultCache.get(
+			purchases,
+			year,
+			"revenueOfShopInYear",
+			new Object[] {shop.name()},
+			() -> purchases.revenueOfShopInYear(shop, year)
+		));
+	}
+
+	@QueryMapping
+	public List<Purchase> purchasesByCustomer(@Argument int customerId, @Argument int year)
+	{
+		final Customer customer = this.bookStoreDemo.data().customers().ofId(customerId);
+		return customer == null
+			? Collections.emptyList()
+			: this.bookStoreDemo.data().purchases().purchasesOfCustomer(customer, year)
+		;
+	}
+
+	/**
+	 * Employee names aren't unique, so the employee is identified by its position in {@link Shop#employeesList()},
+	 * which is exposed as <code>Shop.employeesList</code> in the same order.
+	 */
+	@QueryMapping
+	public List<Purchase> purchasesByEmployee(
+		@Argument String shopName     ,
+		@Argument int    employeeIndex,
+		@Argument int    year
+	)
+	{
+		final Shop           shop      = this.bookStoreDemo.data().shops().ofName(shopName);
+		final List<Employee> employees = shop == null
+			? Collections.emptyList()
+			: shop.employeesList();
+		return employeeIndex < 0 || employeeIndex >= employees.size()
+			? Collections.emptyList()
+			: this.bookStoreDemo.data().purchases().purchasesOfEmployee(employees.get(employeeIndex), year)
+		;
+	}
+
+	@QueryMapping
+	public List<InventoryItem> inventoryOfBook(@Argument String isbn13)
+	{
+		final Book book = this.bookStoreDemo.data().books().ofIsbn13(isbn13);
+		return book == null
+			? Collections.emptyList()
+			: this.bookStoreDemo.data().shops().inventoryOf(book)
+		;
+	}
+
+	@QueryMapping
+	public Connection<Book> booksByNameConnection(
+		@Argument String  name ,
+		@Argument Integer first,
+		@Argument String  after
+	)
+	{
+		return Connection.of(
+			this.bookStoreDemo.data().books().searchByTitle(
+				name,
+				Connection.decodeCursor(after),
+				Connection.first(first)
+			)
+		);
+	}
+
+	@QueryMapping
+	public Connection<BookSales> bestSellerListConnection(
+		@Argument int     year       ,
+		@Argument String  countryCode,
+		@Argument Integer first      ,
+		@Argument String  after
+	)
+	{
+		final Country country = countryCode == null
+			? null
+			: this.countryByCode(countryCode);
+		if(countryCode != null && country == null)
+		{
+			return Connection.of(Page.ofOffset(Collections.emptyList(), 0, 0));
+		}
+		return Connection.of(
+			this.bookStoreDemo.data().purchases().bestSellerList(
+				year,
+				country,
+				Connection.decodeCursor(after),
+				Connection.first(first)
+			)
+		);
+	}
+
+	@QueryMapping
+	public Connection<Purchase> purchasesOfForeignersConnection(
+		@Argument int     year       ,
+		@Argument String  countryCode,
+		@Argument Integer first      ,
+		@Argument String  after
+	)
+	{
+		final Country country = countryCode == null
+			? null
+			: this.countryByCode(countryCode);
+		if(countryCode != null && country == null)
+		{
+			return Connection.of(Page.ofOffset(Collections.emptyList(), 0, 0));
+		}
+		return Connection.of(
+			this.bookStoreDemo.data().purchases().purchasesOfForeigners(
+				year,
+				country,
+				Connection.decodeCursor(after),
+				Connection.first(first)
+			)
+		);
+	}
+
+	@SubscriptionMapping
+	public Flux<Purchase> newPurchases(@Argument String countryCode)
+	{
+		final Country country = countryCode == null
+			? null
+			: this.countryByCode(countryCode);
+		if(countryCode != null && country == null)
+		{
+			return Flux.empty();
+		}
+		return this.purchaseFeed.purchases(country);
+	}
+
+	@SubscriptionMapping
+	public Flux<List<BookSales>> bestSellerDeltas(@Argument int year, @Argument String countryCode)
+	{
+		final Country country = countryCode == null
+			? null
+			: this.countryByCode(countryCode);
+		if(countryCode != null && country == null)
+		{
+			return Flux.empty();
+		}
+		return this.purchaseFeed.bestSellerDeltas(year, country);
+	}
+
 }
@@ -0,0 +1,73 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import javax.money.MonetaryAmount;
+
+import org.eclipse.store.demo.bookstore.data.Book;
+import org.eclipse.store.demo.bookstore.data.Purchase;
+import org.eclipse.store.demo.bookstore.data.PurchaseItem;
+import org.springframework.graphql.data.method.annotation.SchemaMapping;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Resolvers for the monetary fields of the GraphQL schema, which are exposed as {@link Money}
+ * instead of the {@link MonetaryAmount}s of the domain types.
+ * <p>
+ * All other nested fields are plain in-memory getters, which neither load lazy data nor scan collections,
+ * so they are left to the default property resolution. Batching them with DataLoaders would only add overhead.
+ * <p>
+ * The parts of {@link Money} are computed on demand, so e.g. the total of a purchase is never computed
+ * if only its currency is requested.
+ */
+@Controller
+public class GraphQLMoneyMappings
+{
+	public GraphQLMoneyMappings()
+	{
+		super();
+	}
+
+	@SchemaMapping(typeName = "Purchase")
+	public Money total(final Purchase purchase)
+	{
+		return Money.totalOf(purchase);
+	}
+
+	@SchemaMapping(typeName = "PurchaseItem")
+	public Money price(final PurchaseItem item)
+	{
+		return Money.of(item.price());
+	}
+
+	@SchemaMapping(typeName = "PurchaseItem")
+	public Money itemTotal(final PurchaseItem item)
+	{
+		return Money.itemTotalOf(item);
+	}
+
+	@SchemaMapping(typeName = "Book")
+	public Money purchasePrice(final Book book)
+	{
+		return Money.of(book.purchasePrice());
+	}
+
+	@SchemaMapping(typeName = "Book")
+	public Money retailPrice(final Book book)
+	{
+		return Money.of(book.retailPrice());
+	}
+
+}
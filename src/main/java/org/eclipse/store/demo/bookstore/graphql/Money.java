@@ -0,0 +1,140 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.math.BigDecimal;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.money.CurrencyUnit;
+import javax.money.MonetaryAmount;
+
+import org.eclipse.store.demo.bookstore.data.Purchase;
+import org.eclipse.store.demo.bookstore.data.PurchaseItem;
+
+/**
+ * GraphQL representation of a {@link MonetaryAmount}, with the amount in minor units of its currency,
+ * e.g. cents, and the currency code.
+ * <p>
+ * The minor units are exposed as <code>Long</code> scalar, since totals can exceed the 32-bit range of GraphQL's <code>Int</code>.
+ * <p>
+ * The parts are computed on demand, when the respective field is selected by the query.
+ * The minor units of totals are summed up as plain numbers, so the {@link MonetaryAmount} arithmetic
+ * of {@link Purchase#total()} and {@link PurchaseItem#itemTotal()} only happens if the formatted amount is selected.
+ * <p>
+ * All operations on this type are thread safe.
+ */
+public class Money
+{
+	/**
+	 * @param amount the monetary amount
+	 * @return the money of the amount
+	 */
+	public static Money of(final MonetaryAmount amount)
+	{
+		return new Money(
+			amount.getCurrency(),
+			() -> minorUnits(amount),
+			() -> amount
+		);
+	}
+
+	/**
+	 * @param item a purchase item
+	 * @return the money of {@link PurchaseItem#itemTotal()}
+	 */
+	public static Money itemTotalOf(final PurchaseItem item)
+	{
+		return new Money(
+			item.price().getCurrency(),
+			() -> minorUnits(item.price()) * item.amount(),
+			item::itemTotal
+		);
+	}
+
+	/**
+	 * @param purchase a purchase
+	 * @return the money of {@link Purchase#total()}
+	 */
+	public static Money totalOf(final Purchase purchase)
+	{
+		return new Money(
+			purchase.items().findFirst().get().price().getCurrency(),
+			() -> purchase.items().mapToLong(item -> minorUnits(item.price()) * item.amount()).sum(),
+			purchase::total
+		);
+	}
+
+	private static long minorUnits(final MonetaryAmount amount)
+	{
+		return amount.getNumber()
+			.numberValue(BigDecimal.class)
+			.movePointRight(Math.max(0, amount.getCurrency().getDefaultFractionDigits()))
+			.longValue();
+	}
+
+
+	private final CurrencyUnit             currency  ;
+	private final LongSupplier             minorUnits;
+	private final Supplier<MonetaryAmount> amount    ;
+
+	Money(
+		final CurrencyUnit             currency  ,
+		final LongSupplier             minorUnits,
+		final Supplier<MonetaryAmount> amount
+	)
+	{
+		super();
+		this.currency   = currency  ;
+		this.minorUnits = minorUnits;
+		this.amount     = amount    ;
+	}
+
+	/**
+	 * @return the amount in minor units of the currency, e.g. cents
+	 */
+	public long minorUnits()
+	{
+		return this.minorUnits.getAsLong();
+	}
+
+	/**
+	 * @return the amount as decimal number
+	 */
+	public double amount()
+	{
+		return BigDecimal.valueOf(
+			this.minorUnits.getAsLong(),
+			Math.max(0, this.currency.getDefaultFractionDigits())
+		).doubleValue();
+	}
+
+	/**
+	 * @return the ISO 4217 code of the currency
+	 */
+	public String currency()
+	{
+		return this.currency.getCurrencyCode();
+	}
+
+	/**
+	 * @return the amount formatted like {@link MonetaryAmount#toString()}
+	 */
+	public String formatted()
+	{
+		return String.valueOf(this.amount.get());
+	}
+
+}
@@ -0,0 +1,306 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.stereotype.Component;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQueryCache;
+import graphql.execution.preparsed.persisted.PersistedQueryCacheMiss;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+
+/**
+ * Cache for parsed and validated GraphQL documents, with support for automatic persisted queries,
+ * based on graphql-java's {@link ApolloPersistedQuerySupport}.
+ * <p>
+ * Clients can send the SHA-256 hash of the query text instead of the query, in the extension
+ * <code>{"persistedQuery": {"version": 1, "sha256Hash": "..."}}</code>. If the hash is unknown, the request fails with
+ * the error <code>PersistedQueryNotFound</code> and the client repeats it with the query text, which registers it.
+ * Requests without the extension are cached by the hash of their query text as well,
+ * so repeated queries skip parsing and validation.
+ * <p>
+ * Only valid documents are cached. The request limits of {@link GraphQLConfiguration} still apply to cached documents,
+ * since they are checked for each execution.
+ * <p>
+ * The least recently used documents are evicted if the maximum size is exceeded, which can be set with the
+ * system property <code>bookstore.graphql.documentCacheSize</code> (default 512).
+ * <p>
+ * All operations on this type are thread safe.
+ */
+@Component
+public class PersistedQueries extends ApolloPersistedQuerySupport
+{
+	public static class Metrics
+	{
+		private final int  size     ;
+		private final int  maxSize  ;
+		private final long hits     ;
+		private final long misses   ;
+		private final long notFound ;
+		private final long evictions;
+
+		Metrics(
+			final int  size     ,
+			final int  maxSize  ,
+			final long hits     ,
+			final long misses   ,
+			final long notFound ,
+			final long evictions
+		)
+		{
+			super();
+			this.size      = size     ;
+			this.maxSize   = maxSize  ;
+			this.hits      = hits     ;
+			this.misses    = misses   ;
+			this.notFound  = notFound ;
+			this.evictions = evictions;
+		}
+
+		public int size()
+		{
+			return this.size;
+		}
+
+		public int maxSize()
+		{
+			return this.maxSize;
+		}
+
+		public long hits()
+		{
+			return this.hits;
+		}
+
+		/**
+		 * @return the amount of documents which had to be parsed and validated
+		 */
+		public long misses()
+		{
+			return this.misses;
+		}
+
+		/**
+		 * @return the amount of requests with an unknown hash and without query text
+		 */
+		public long notFound()
+		{
+			return this.notFound;
+		}
+
+		public long evictions()
+		{
+			return this.evictions;
+		}
+
+		public double hitRate()
+		{
+			final long lookups = this.hits + this.misses + this.notFound;
+			return lookups == 0
+				? 0.0
+				: (double)this.hits / lookups;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.size + " of " + this.maxSize + " documents cached, "
+				+ this.hits      + " hits, "
+				+ this.misses    + " misses, "
+				+ this.notFound  + " not found, "
+				+ this.evictions + " evictions";
+		}
+	}
+
+
+	/**
+	 * Bounded cache with the documents, keyed by the hash of their query text.
+	 * The least recently used documents are evicted if the maximum size is exceeded.
+	 * <p>
+	 * All access is guarded by the instance's monitor.
+	 */
+	static final class Cache implements PersistedQueryCache
+	{
+		/**
+		 * Access ordered map with the cached documents.
+		 */
+		private final Map<Object, PreparsedDocumentEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+		private final int                                 maxSize  ;
+		private long                                      hits     ;
+		private long                                      misses   ;
+		private long                                      notFound ;
+		private long                                      evictions;
+
+		Cache(final int maxSize)
+		{
+			super();
+			this.maxSize = Math.max(1, maxSize);
+		}
+
+		@Override
+		public CompletableFuture<PreparsedDocumentEntry> getPersistedQueryDocumentAsync(
+			final Object                  persistedQueryId,
+			final ExecutionInput          executionInput  ,
+			final PersistedQueryCacheMiss onCacheMiss
+		)
+			throws PersistedQueryNotFound
+		{
+			final String queryText = executionInput.getQuery();
+			synchronized(this)
+			{
+				final PreparsedDocumentEntry entry = this.entries.get(persistedQueryId);
+				if(entry != null)
+				{
+					this.hits++;
+					return CompletableFuture.completedFuture(entry);
+				}
+				if(queryText == null || queryText.isBlank() || PERSISTED_QUERY_MARKER.equals(queryText))
+				{
+					this.notFound++;
+					throw new PersistedQueryNotFound(persistedQueryId);
+				}
+				this.misses++;
+			}
+
+			/*
+			 * Parsing and validation run outside of the lock,
+			 * so concurrent misses of the same query may parse it multiple times.
+			 */
+			final PreparsedDocumentEntry entry = onCacheMiss.apply(queryText);
+			if(!entry.hasErrors())
+			{
+				synchronized(this)
+				{
+					this.entries.put(persistedQueryId, entry);
+					this.evict();
+				}
+			}
+			return CompletableFuture.completedFuture(entry);
+		}
+
+		synchronized void clear()
+		{
+			this.entries.clear();
+		}
+
+		synchronized Metrics metrics()
+		{
+			return new Metrics(
+				this.entries.size(),
+				this.maxSize,
+				this.hits,
+				this.misses,
+				this.notFound,
+				this.evictions
+			);
+		}
+
+		/**
+		 * Removes least recently used documents until the maximum size is met.
+		 */
+		private void evict()
+		{
+			final Iterator<Map.Entry<Object, PreparsedDocumentEntry>> iterator = this.entries.entrySet().iterator();
+			while(this.entries.size() > this.maxSize && iterator.hasNext())
+			{
+				iterator.next();
+				iterator.remove();
+				this.evictions++;
+			}
+		}
+	}
+
+
+	private final Cache cache;
+
+	public PersistedQueries()
+	{
+		this(Integer.getInteger("bookstore.graphql.documentCacheSize", 512));
+	}
+
+	public PersistedQueries(final int maxSize)
+	{
+		this(new Cache(maxSize));
+	}
+
+	private PersistedQueries(final Cache cache)
+	{
+		super(cache);
+		this.cache = cache;
+	}
+
+	/**
+	 * Uses the hash of the query text as id for requests without persisted query extension,
+	 * so their documents are cached as well.
+	 */
+	@Override
+	protected Optional<Object> getPersistedQueryId(final ExecutionInput executionInput)
+	{
+		final Optional<Object> persistedQueryId = super.getPersistedQueryId(executionInput);
+		if(persistedQueryId.isPresent())
+		{
+			return persistedQueryId;
+		}
+		final String query = executionInput.getQuery();
+		return query == null || query.isBlank() || PERSISTED_QUERY_MARKER.equals(query)
+			? Optional.empty()
+			: Optional.of(sha256(query));
+	}
+
+	/**
+	 * Removes all cached documents.
+	 */
+	public void clear()
+	{
+		this.cache.clear();
+	}
+
+	/**
+	 * Gets a snapshot of the current metrics.
+	 *
+	 * @return the metrics
+	 */
+	public Metrics metrics()
+	{
+		return this.cache.metrics();
+	}
+
+	private static String sha256(final String query)
+	{
+		try
+		{
+			return HexFormat.of().formatHex(
+				MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8))
+			);
+		}
+		catch(final NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
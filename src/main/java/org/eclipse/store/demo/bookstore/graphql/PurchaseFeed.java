@@ -0,0 +1,197 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.store.demo.bookstore.data.Book;
+import org.eclipse.store.demo.bookstore.data.BookSales;
+import org.eclipse.store.demo.bookstore.data.Country;
+import org.eclipse.store.demo.bookstore.data.Purchase;
+import org.eclipse.store.demo.bookstore.data.PurchaseEvents;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Live feed of new purchases for GraphQL subscriptions, fed by the {@link PurchaseEvents}.
+ * <p>
+ * This feed only listens to the {@link PurchaseEvents} while it has subscribers,
+ * so purchases aren't queued for nobody.
+ * <p>
+ * Every subscriber has its own bounded buffer. If a subscriber, e.g. a slow WebSocket client, can't keep up,
+ * its oldest buffered elements are dropped, so it neither blocks the other subscribers nor grows the heap.
+ * The buffer size can be set with the system property <code>bookstore.graphql.subscriptionBuffer</code> (default 256).
+ * The elements are delivered to each subscriber on a worker of its own, so the field resolution of one subscriber
+ * doesn't run on, and delay, the single dispatcher thread of the {@link PurchaseEvents}.
+ * <p>
+ * Best-seller deltas are aggregated in windows of at most one second,
+ * so dashboards can update their list without recomputing it.
+ * <p>
+ * All operations on this type are thread safe.
+ */
+@Component
+public class PurchaseFeed implements DisposableBean
+{
+	/**
+	 * Maximum duration of a best-seller delta window.
+	 */
+	private final static Duration DELTA_WINDOW      = Duration.ofSeconds(1);
+
+	/**
+	 * Maximum amount of purchases of a best-seller delta window.
+	 */
+	private final static int      DELTA_WINDOW_SIZE = 1000;
+
+
+	/*
+	 * Only the dispatcher thread of the PurchaseEvents emits, so the emissions are serialized.
+	 */
+	private final Sinks.Many<Purchase> sink     = Sinks.many().multicast().directBestEffort();
+	private final Consumer<Purchase>   listener = this::emit;
+	private final AtomicLong           dropped  = new AtomicLong();
+	private final int                  bufferSize;
+
+	/**
+	 * Amount of subscribers, guarded by this instance's monitor.
+	 */
+	private int                        subscribers;
+
+	public PurchaseFeed()
+	{
+		this(Integer.getInteger("bookstore.graphql.subscriptionBuffer", 256));
+	}
+
+	public PurchaseFeed(final int bufferSize)
+	{
+		super();
+		this.bufferSize = Math.max(1, bufferSize);
+	}
+
+	/**
+	 * Gets the new purchases, optionally of shops in a specific country.
+	 *
+	 * @param country the country of the shops, or <code>null</code> for all countries
+	 * @return the flux of new purchases
+	 */
+	public Flux<Purchase> purchases(final Country country)
+	{
+		return this.feed()
+			.filter(purchase -> country == null || countryOf(purchase) == country)
+			.onBackpressureBuffer(this.bufferSize, element -> this.dropped.incrementAndGet(), BufferOverflowStrategy.DROP_OLDEST)
+			.publishOn(Schedulers.boundedElastic());
+	}
+
+	/**
+	 * Gets the changes of the best-seller list of a year, optionally of shops in a specific country.
+	 * Each element contains the books sold since the previous one, with the sold amounts, best-sellers first.
+	 *
+	 * @param year the year
+	 * @param country the country of the shops, or <code>null</code> for all countries
+	 * @return the flux of best-seller deltas
+	 */
+	public Flux<List<BookSales>> bestSellerDeltas(
+		final int     year   ,
+		final Country country
+	)
+	{
+		return this.feed()
+			.filter(purchase -> purchase.timestamp().getYear() == year)
+			.filter(purchase -> country == null || countryOf(purchase) == country)
+			.bufferTimeout(DELTA_WINDOW_SIZE, DELTA_WINDOW)
+			.map(PurchaseFeed::bookSales)
+			.filter(bookSales -> !bookSales.isEmpty())
+			.onBackpressureBuffer(this.bufferSize, element -> this.dropped.incrementAndGet(), BufferOverflowStrategy.DROP_OLDEST)
+			.publishOn(Schedulers.boundedElastic());
+	}
+
+	/**
+	 * @return the amount of elements which were dropped because subscribers couldn't keep up
+	 */
+	public long dropped()
+	{
+		return this.dropped.get();
+	}
+
+	/**
+	 * Gets the flux of all new purchases, which listens to the {@link PurchaseEvents} as long as it has subscribers.
+	 */
+	private Flux<Purchase> feed()
+	{
+		return this.sink.asFlux()
+			.doOnSubscribe(subscription -> this.subscriberAdded())
+			.doFinally(signal -> this.subscriberRemoved());
+	}
+
+	private synchronized void subscriberAdded()
+	{
+		if(this.subscribers++ == 0)
+		{
+			PurchaseEvents.get().subscribe(this.listener);
+		}
+	}
+
+	private synchronized void subscriberRemoved()
+	{
+		if(--this.subscribers == 0)
+		{
+			PurchaseEvents.get().unsubscribe(this.listener);
+		}
+	}
+
+	@Override
+	public void destroy()
+	{
+		PurchaseEvents.get().unsubscribe(this.listener);
+		this.sink.tryEmitComplete();
+	}
+
+	private void emit(final Purchase purchase)
+	{
+		if(this.sink.currentSubscriberCount() > 0)
+		{
+			this.sink.tryEmitNext(purchase);
+		}
+	}
+
+	private static Country countryOf(final Purchase purchase)
+	{
+		return purchase.shop().address().city().state().country();
+	}
+
+	private static List<BookSales> bookSales(final List<Purchase> purchases)
+	{
+		final Map<Book, Integer> amounts = new HashMap<>();
+		purchases.forEach(purchase -> purchase.items().forEach(
+			item -> amounts.merge(item.book(), item.amount(), Integer::sum)
+		));
+
+		final List<BookSales> bookSales = new ArrayList<>(amounts.size());
+		amounts.forEach((book, amount) -> bookSales.add(new BookSales(book, amount)));
+		bookSales.sort(null);
+		return bookSales;
+	}
+
+}
@@ -0,0 +1,261 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.eclipse.store.demo.bookstore.data.Purchases;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache for the results of GraphQL analytics queries which are computed from the purchases of a year.
+ * <p>
+ * Each result is cached with the {@link Purchases#version(int)} of its year at the time it was computed.
+ * A result is only reused while the version is unchanged, so adding a purchase invalidates
+ * all results of its year and no other ones. Results of past years effectively stay valid forever.
+ * <p>
+ * The least recently used results are evicted if the maximum size is exceeded, which can be set with the
+ * system property <code>bookstore.graphql.resultCacheSize</code> (default 1024).
+ * <p>
+ * Cached results are shared by all callers and must not be modified.
+ * <p>
+ * All operations on this type are thread safe.
+ */
+@Component
+public class QueryResultCache
+{
+	/**
+	 * Snapshot of the cache metrics.
+	 * <p>
+	 * This type is immutable and therefor inherently thread safe.
+	 */
+	public static class Metrics
+	{
+		private final int  size         ;
+		private final int  maxSize      ;
+		private final long hits         ;
+		private final long misses       ;
+		private final long invalidations;
+		private final long evictions    ;
+
+		Metrics(
+			final int  size         ,
+			final int  maxSize      ,
+			final long hits         ,
+			final long misses       ,
+			final long invalidations,
+			final long evictions
+		)
+		{
+			super();
+			this.size          = size         ;
+			this.maxSize       = maxSize      ;
+			this.hits          = hits         ;
+			this.misses        = misses       ;
+			this.invalidations = invalidations;
+			this.evictions     = evictions    ;
+		}
+
+		public int size()
+		{
+			return this.size;
+		}
+
+		public int maxSize()
+		{
+			return this.maxSize;
+		}
+
+		public long hits()
+		{
+			return this.hits;
+		}
+
+		/**
+		 * @return the amount of lookups which had to compute the result, including invalidated ones
+		 */
+		public long misses()
+		{
+			return this.misses;
+		}
+
+		/**
+		 * @return the amount of results which were outdated by new purchases
+		 */
+		public long invalidations()
+		{
+			return this.invalidations;
+		}
+
+		public long evictions()
+		{
+			return this.evictions;
+		}
+
+		public double hitRate()
+		{
+			final long lookups = this.hits + this.misses;
+			return lookups == 0
+				? 0.0
+				: (double)this.hits / lookups;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.size + " of " + this.maxSize + " results cached, "
+				+ this.hits          + " hits, "
+				+ this.misses        + " misses, "
+				+ this.invalidations + " invalidations, "
+				+ this.evictions     + " evictions";
+		}
+	}
+
+
+	private static class Entry
+	{
+		final long   version;
+		final Object result ;
+
+		Entry(
+			final long   version,
+			final Object result
+		)
+		{
+			super();
+			this.version = version;
+			this.result  = result ;
+		}
+	}
+
+
+	/**
+	 * Access ordered map with the cached results, keyed by the query name and its arguments.
+	 */
+	private final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private final int                maxSize      ;
+	private long                     hits         ;
+	private long                     misses       ;
+	private long                     invalidations;
+	private long                     evictions    ;
+
+	public QueryResultCache()
+	{
+		this(Integer.getInteger("bookstore.graphql.resultCacheSize", 1024));
+	}
+
+	public QueryResultCache(final int maxSize)
+	{
+		super();
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Gets the cached result of a query, or computes and caches it if it is missing or outdated.
+	 * <p>
+	 * The computation runs outside of the cache's lock, so concurrent misses of the same query
+	 * may compute the result multiple times.
+	 *
+	 * @param <T> the result type
+	 * @param purchases the purchases the result is computed from
+	 * @param year the year of the purchases the result is computed from
+	 * @param query the name of the query
+	 * @param arguments further arguments of the query, besides the year
+	 * @param computation the computation of the result
+	 * @return the cached or computed result
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(
+		final Purchases   purchases  ,
+		final int         year       ,
+		final String      query      ,
+		final Object[]    arguments  ,
+		final Supplier<T> computation
+	)
+	{
+		final String key     = query + '(' + year + ", " + Arrays.toString(arguments) + ')';
+		final long   version = purchases.version(year);
+		synchronized(this)
+		{
+			final Entry entry = this.entries.get(key);
+			if(entry != null)
+			{
+				if(entry.version == version)
+				{
+					this.hits++;
+					return (T)entry.result;
+				}
+				this.invalidations++;
+			}
+			this.misses++;
+		}
+
+		/*
+		 * The version is read before computing, so a purchase added in between
+		 * leads to a recomputation on the next lookup, not to a stale result.
+		 */
+		final T result = computation.get();
+		synchronized(this)
+		{
+			this.entries.put(key, new Entry(version, result));
+			this.evict();
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all cached results.
+	 */
+	public synchronized void clear()
+	{
+		this.entries.clear();
+	}
+
+	/**
+	 * Gets a snapshot of the current metrics.
+	 *
+	 * @return the metrics
+	 */
+	public synchronized Metrics metrics()
+	{
+		return new Metrics(
+			this.entries.size(),
+			this.maxSize,
+			this.hits,
+			this.misses,
+			this.invalidations,
+			this.evictions
+		);
+	}
+
+	/**
+	 * Removes least recently used results until the maximum size is met.
+	 */
+	private void evict()
+	{
+		final Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+		while(this.entries.size() > this.maxSize && iterator.hasNext())
+		{
+			iterator.next();
+			iterator.remove();
+			this.evictions++;
+		}
+	}
+
+}
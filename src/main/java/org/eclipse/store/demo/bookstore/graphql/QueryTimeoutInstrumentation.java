@@ -0,0 +1,98 @@
+package org.eclipse.store.demo.bookstore.graphql;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import org.eclipse.store.demo.bookstore.util.Deadline;
+
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.language.OperationDefinition;
+import graphql.schema.DataFetcher;
+
+/**
+ * Instrumentation which limits the execution time of a GraphQL request.
+ * <p>
+ * Every request gets a {@link Deadline}, which is bound to the thread of each non-trivial data fetcher.
+ * The computations of the data layer check it, e.g. the parallel streams of
+ * {@link org.eclipse.store.demo.bookstore.data.Purchases}, and are aborted once it has passed,
+ * so a runaway query doesn't keep all cores busy after its client got the error.
+ * Fields which are fetched after the deadline fail right away.
+ * <p>
+ * Subscriptions are open-ended, so they don't share one deadline for the whole request.
+ * Instead, every field fetch of a subscription gets its own deadline, which limits the work
+ * per emitted event without ending the subscription once the timeout has passed.
+ */
+public class QueryTimeoutInstrumentation extends SimplePerformantInstrumentation
+{
+	private static class State implements InstrumentationState
+	{
+		final Deadline deadline;
+
+		State(final Deadline deadline)
+		{
+			super();
+			this.deadline = deadline;
+		}
+	}
+
+
+	private final long timeoutMillis;
+
+	/**
+	 * @param timeoutMillis the maximum execution time of a request in milliseconds, 0 or less for no limit
+	 */
+	public QueryTimeoutInstrumentation(final long timeoutMillis)
+	{
+		super();
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	public InstrumentationState createState(final InstrumentationCreateStateParameters parameters)
+	{
+		return new State(Deadline.after(this.timeoutMillis));
+	}
+
+	@Override
+	public DataFetcher<?> instrumentDataFetcher(
+		final DataFetcher<?>                      dataFetcher,
+		final InstrumentationFieldFetchParameters parameters ,
+		final InstrumentationState                state
+	)
+	{
+		if(parameters.isTrivialDataFetcher() || !(state instanceof State))
+		{
+			return dataFetcher;
+		}
+
+		if(parameters.getEnvironment().getOperationDefinition().getOperation()
+			== OperationDefinition.Operation.SUBSCRIPTION
+		)
+		{
+			return environment ->
+				Deadline.call(Deadline.after(this.timeoutMillis), () -> dataFetcher.get(environment));
+		}
+
+		final Deadline deadline = ((State)state).deadline;
+		return environment ->
+		{
+			deadline.check();
+			return Deadline.call(deadline, () -> dataFetcher.get(environment));
+		};
+	}
+
+}
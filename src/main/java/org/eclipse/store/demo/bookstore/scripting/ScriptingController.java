@@ -1,22 +1,40 @@
 package org.eclipse.store.demo.bookstore.scripting;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
 import org.rapidpm.dependencies.core.logger.HasLogger;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 
 /**
  * REST controller which exposes POST /script/run/ to execute arbitrary scripts.
+ * <p>
+ * Frequently used scripts can be prepared once with PUT /script/prepared/{id} and executed with
+ * POST /script/prepared/{id}/run, which skips compiling them.
+ * The time spent compiling and executing a script is reported in the response headers
+ * <code>X-Script-Compile-Time</code>, <code>X-Script-Execute-Time</code> and <code>X-Script-Cpu-Time</code>,
+ * in milliseconds. GET /script/metrics returns the accumulated metrics of all scripts.
+ * <p>
+ * Scripts which exceed the limits of the {@link ScriptingService} fail with the status 429 if too many scripts
+ * are running, or 503 if a script timed out.
  */
 
 @RestController
@@ -41,15 +59,123 @@ public class ScriptingController implements HasLogger
 		
 		try
 		{
-			return ResponseEntity.ok(
+			return ok(
 				this.scriptingService.runScript(script)
 			);
 		}
 		catch(final Exception e)
+		{
+			return failed(e);
+		}
+	}
+
+	@PutMapping(
+		value    = "/prepared/{id}",
+		produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	Object prepare(
+		@PathVariable                   final String       id        ,
+		@RequestParam(required = false) final List<String> parameters,
+		@RequestBody                    final String       script
+	)
+	{
+		this.logger().info("Scripting preparation: " + id);
+
+		try
+		{
+			final long compileNanos = this.scriptingService.prepareScript(
+				id,
+				script,
+				parameters == null
+					? Collections.emptyList()
+					: parameters
+			);
+			return ResponseEntity.ok()
+				.header("X-Script-Compile-Time", millis(compileNanos))
+				.body(id);
+		}
+		catch(final Exception e)
 		{
 			return ResponseEntity.badRequest().body(e.getMessage());
 		}
 	}
+
+	@PostMapping(
+		value    = "/prepared/{id}/run",
+		produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	Object runPrepared(
+		@PathVariable                  final String              id       ,
+		@RequestBody(required = false) final Map<String, Object> arguments
+	)
+	{
+		try
+		{
+			return ok(
+				this.scriptingService.runPreparedScript(
+					id,
+					arguments == null
+						? Collections.emptyMap()
+						: arguments
+				)
+			);
+		}
+		catch(final Exception e)
+		{
+			return failed(e);
+		}
+	}
+
+	@DeleteMapping("/prepared/{id}")
+	ResponseEntity<Void> remove(@PathVariable final String id)
+	{
+		return this.scriptingService.removePreparedScript(id)
+			? ResponseEntity.noContent().build()
+			: ResponseEntity.notFound().build();
+	}
+
+	@GetMapping(
+		value    = "/prepared",
+		produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	List<String> prepared()
+	{
+		return this.scriptingService.preparedScriptIds();
+	}
+
+	@GetMapping(
+		value    = "/metrics",
+		produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	Map<String, ScriptingService.Metrics> metrics()
+	{
+		return this.scriptingService.metrics();
+	}
+
+	private static ResponseEntity<Object> ok(final ScriptingService.Execution execution)
+	{
+		return ResponseEntity.ok()
+			.contentType(MediaType.APPLICATION_JSON)
+			.header("X-Script-Compile-Time", millis(execution.compileNanos))
+			.header("X-Script-Execute-Time", millis(execution.executeNanos))
+			.header("X-Script-Cpu-Time",     millis(execution.cpuNanos))
+			.body(execution.result);
+	}
+
+	private static ResponseEntity<Object> failed(final Exception e)
+	{
+		final HttpStatus status = e instanceof RejectedExecutionException
+			? HttpStatus.TOO_MANY_REQUESTS
+			: e instanceof TimeoutException
+				? HttpStatus.SERVICE_UNAVAILABLE
+				: HttpStatus.BAD_REQUEST;
+		return ResponseEntity.status(status).body(e.getMessage());
+	}
+
+	private static String millis(final long nanos)
+	{
+		return String.valueOf(nanos / 1_000_000.0);
+	}
 	
 	/**
 	 * Custom Jackson object mapper for JSON serialization.
@@ -59,10 +185,7 @@ public class ScriptingController implements HasLogger
 	@Bean
 	ObjectMapper registerObjectMapper()
 	{
-		 final ObjectMapper mapper = new ObjectMapper();
-		 mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
-		 mapper.registerModule(new JavaTimeModule());
-		 return mapper;
+		return ScriptingService.createObjectMapper();
 	}
 	
 }
@@ -1,18 +1,343 @@
 package org.eclipse.store.demo.bookstore.scripting;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.commons.jexl3.JexlBuilder;
+import org.apache.commons.jexl3.JexlContext;
 import org.apache.commons.jexl3.JexlEngine;
 import org.apache.commons.jexl3.JexlFeatures;
-import org.apache.commons.jexl3.MapContext;
+import org.apache.commons.jexl3.JexlScript;
 import org.apache.commons.jexl3.introspection.JexlPermissions;
 import org.eclipse.store.demo.bookstore.BookStoreDemo;
+import org.eclipse.store.demo.bookstore.util.Deadline;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.github.javafaker.Faker;
 
+/**
+ * Executes JEXL scripts on a dedicated, bounded thread pool, so scripts can't starve the request threads.
+ * <p>
+ * Scripts are aborted after a timeout. The worker thread is interrupted, which cancels the JEXL interpreter,
+ * and the {@link Deadline} of the worker thread aborts long running computations of the data layer.
+ * The result is serialized to JSON in the worker thread as well, and fails if it exceeds a maximum size,
+ * e.g. if a script returns a whole entity graph.
+ * <p>
+ * The CPU time of the worker thread is accounted per script and exposed by {@link #metrics()}.
+ * Work done by other threads, like the parallel streams of the data layer, isn't included.
+ * Platform threads are used, since the CPU time of virtual threads can't be measured.
+ * <p>
+ * The limits can be set with the system properties <code>bookstore.script.threads</code>
+ * (default half of the available processors), <code>bookstore.script.queueSize</code> (default 16),
+ * <code>bookstore.script.timeout</code> in milliseconds (default 30000)
+ * and <code>bookstore.script.maxResultSize</code> in bytes (default 16 MiB).
+ */
 @Service
-public class ScriptingService
+public class ScriptingService implements DisposableBean
 {
+	/**
+	 * Id of the metrics of scripts which are not prepared.
+	 */
+	final static String AD_HOC = "<ad hoc>";
+
+
+	/**
+	 * Result of a script execution, serialized as JSON,
+	 * along with the time spent compiling and executing the script.
+	 */
+	static class Execution
+	{
+		final byte[] result      ;
+		final long   compileNanos;
+		final long   executeNanos;
+		final long   cpuNanos    ;
+
+		Execution(
+			final byte[] result      ,
+			final long   compileNanos,
+			final long   executeNanos,
+			final long   cpuNanos
+		)
+		{
+			super();
+			this.result       = result      ;
+			this.compileNanos = compileNanos;
+			this.executeNanos = executeNanos;
+			this.cpuNanos     = cpuNanos    ;
+		}
+	}
+
+
+	/**
+	 * Snapshot of the metrics of a script.
+	 * <p>
+	 * This type is immutable and therefor inherently thread safe.
+	 */
+	public static class Metrics
+	{
+		private final long   executions  ;
+		private final long   failures    ;
+		private final long   timeouts    ;
+		private final long   rejections  ;
+		private final double cpuMillis   ;
+		private final double maxCpuMillis;
+		private final double wallMillis  ;
+
+		Metrics(
+			final long   executions  ,
+			final long   failures    ,
+			final long   timeouts    ,
+			final long   rejections  ,
+			final double cpuMillis   ,
+			final double maxCpuMillis,
+			final double wallMillis
+		)
+		{
+			super();
+			this.executions   = executions  ;
+			this.failures     = failures    ;
+			this.timeouts     = timeouts    ;
+			this.rejections   = rejections  ;
+			this.cpuMillis    = cpuMillis   ;
+			this.maxCpuMillis = maxCpuMillis;
+			this.wallMillis   = wallMillis  ;
+		}
+
+		/**
+		 * @return the amount of executions, including failed ones
+		 */
+		public long executions()
+		{
+			return this.executions;
+		}
+
+		public long failures()
+		{
+			return this.failures;
+		}
+
+		public long timeouts()
+		{
+			return this.timeouts;
+		}
+
+		/**
+		 * @return the amount of executions which were rejected because too many scripts were running
+		 */
+		public long rejections()
+		{
+			return this.rejections;
+		}
+
+		/**
+		 * @return the total CPU time of all executions in milliseconds
+		 */
+		public double cpuMillis()
+		{
+			return this.cpuMillis;
+		}
+
+		public double maxCpuMillis()
+		{
+			return this.maxCpuMillis;
+		}
+
+		/**
+		 * @return the total elapsed time of all executions in milliseconds
+		 */
+		public double wallMillis()
+		{
+			return this.wallMillis;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.executions + " executions, "
+				+ this.failures     + " failures, "
+				+ this.timeouts     + " timeouts, "
+				+ this.rejections   + " rejections, "
+				+ this.cpuMillis    + " ms CPU time";
+		}
+	}
+
+
+	/**
+	 * Accumulated metrics of a script.
+	 */
+	private static class Statistics
+	{
+		private long executions ;
+		private long failures   ;
+		private long timeouts   ;
+		private long rejections ;
+		private long cpuNanos   ;
+		private long maxCpuNanos;
+		private long wallNanos  ;
+
+		synchronized void executed(
+			final long    cpuNanos ,
+			final long    wallNanos,
+			final boolean failed
+		)
+		{
+			this.executions++;
+			if(failed)
+			{
+				this.failures++;
+			}
+			this.cpuNanos   += cpuNanos;
+			this.maxCpuNanos = Math.max(this.maxCpuNanos, cpuNanos);
+			this.wallNanos  += wallNanos;
+		}
+
+		synchronized void timedOut()
+		{
+			this.timeouts++;
+		}
+
+		synchronized void rejected()
+		{
+			this.rejections++;
+		}
+
+		synchronized Metrics metrics()
+		{
+			return new Metrics(
+				this.executions,
+				this.failures,
+				this.timeouts,
+				this.rejections,
+				this.cpuNanos    / 1_000_000.0,
+				this.maxCpuNanos / 1_000_000.0,
+				this.wallNanos   / 1_000_000.0
+			);
+		}
+	}
+
+
+	/**
+	 * Context of a single script execution.
+	 * <p>
+	 * The shared variables <code>data</code> and <code>demo</code> are created once and are read-only,
+	 * as is <code>faker</code>, which isn't thread safe and therefore exists once per worker thread.
+	 * Other variables assigned by the script are local to the execution.
+	 */
+	private static class ScriptContext implements JexlContext
+	{
+		private final static String FAKER = "faker";
+
+		private final Map<String, Object> shared;
+		private final Faker               faker ;
+		private Map<String, Object>       locals;
+
+		ScriptContext(
+			final Map<String, Object> shared,
+			final Faker               faker
+		)
+		{
+			super();
+			this.shared = shared;
+			this.faker  = faker ;
+		}
+
+		@Override
+		public Object get(final String name)
+		{
+			if(FAKER.equals(name))
+			{
+				return this.faker;
+			}
+			final Object value = this.shared.get(name);
+			return value != null || this.locals == null
+				? value
+				: this.locals.get(name);
+		}
+
+		@Override
+		public void set(final String name, final Object value)
+		{
+			if(FAKER.equals(name) || this.shared.containsKey(name))
+			{
+				throw new UnsupportedOperationException("Variable is read-only: " + name);
+			}
+			if(this.locals == null)
+			{
+				this.locals = new HashMap<>();
+			}
+			this.locals.put(name, value);
+		}
+
+		@Override
+		public boolean has(final String name)
+		{
+			return FAKER.equals(name)
+				|| this.shared.containsKey(name)
+				|| this.locals != null && this.locals.containsKey(name);
+		}
+	}
+
+
+	/**
+	 * Output stream which fails if more than a maximum amount of bytes is written.
+	 */
+	private static class LimitedOutputStream extends ByteArrayOutputStream
+	{
+		private final int maxSize;
+
+		LimitedOutputStream(final int maxSize)
+		{
+			super(Math.min(8192, maxSize));
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public synchronized void write(final int b)
+		{
+			this.checkSize(1);
+			super.write(b);
+		}
+
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len)
+		{
+			this.checkSize(len);
+			super.write(b, off, len);
+		}
+
+		private void checkSize(final int length)
+		{
+			if(this.count + length > this.maxSize)
+			{
+				throw new IllegalStateException("Script result exceeds " + this.maxSize + " bytes");
+			}
+		}
+	}
+
+
 	private final JexlEngine jexl = new JexlBuilder()
 		.permissions(JexlPermissions.UNRESTRICTED) // expose all fields and methods, do not use in production!
 		.features(JexlFeatures.createAll())        // we use all features
@@ -20,33 +345,311 @@ public class ScriptingService
 		.strict(true)
 		.safe(false)
 		.silent(false)
+		.cancellable(true)                         // interrupted scripts are aborted
 		.create()
 	;
-	
-	
+
+	private final ObjectMapper            objectMapper    = createObjectMapper();
+	private final ThreadMXBean            threadMXBean    = ManagementFactory.getThreadMXBean();
+	private final ThreadPoolExecutor      executor        ;
+	private final long                    timeoutMillis   ;
+	private final int                     maxResultSize   ;
+
+	/**
+	 * Precompiled scripts, indexed by their id.
+	 */
+	private final Map<String, JexlScript> preparedScripts = new ConcurrentHashMap<>();
+
+	/**
+	 * Metrics of all scripts, indexed by their id, or {@link #AD_HOC}.
+	 */
+	private final Map<String, Statistics> statistics      = new ConcurrentHashMap<>();
+
+	/**
+	 * Variables shared by all executions, created on demand.
+	 */
+	private volatile Map<String, Object>  sharedVariables;
+
+	/**
+	 * Faker instance of each worker thread, since {@link Faker} isn't thread safe.
+	 */
+	private final ThreadLocal<Faker>      faker           = ThreadLocal.withInitial(Faker::instance);
+
+	public ScriptingService()
+	{
+		this(
+			Integer.getInteger("bookstore.script.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+			Integer.getInteger("bookstore.script.queueSize", 16),
+			Long.getLong("bookstore.script.timeout", 30_000L),
+			Integer.getInteger("bookstore.script.maxResultSize", 16 * 1024 * 1024)
+		);
+	}
+
+	public ScriptingService(
+		final int  threads      ,
+		final int  queueSize    ,
+		final long timeoutMillis,
+		final int  maxResultSize
+	)
+	{
+		super();
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(
+			Math.max(1, threads),
+			Math.max(1, threads),
+			0L,
+			TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+			runnable -> {
+				final Thread thread = new Thread(runnable, "bookstore-script-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		);
+		this.timeoutMillis = timeoutMillis;
+		this.maxResultSize = Math.max(1, maxResultSize);
+	}
+
+	/**
+	 * Creates the object mapper used to serialize script results.
+	 *
+	 * @return a new object mapper
+	 */
+	static ObjectMapper createObjectMapper()
+	{
+		final ObjectMapper mapper = new ObjectMapper();
+		mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+		mapper.registerModule(new JavaTimeModule());
+		return mapper;
+	}
+
+
 	/**
 	 * Executes the JEXL script and returns the result.
-	 * 
+	 *
 	 * @param script the script to execute
-	 * @return the script's result
+	 * @return the script's result, serialized as JSON
+	 * @throws RejectedExecutionException if too many scripts are running
+	 * @throws TimeoutException if the script exceeded the timeout
+	 * @throws Exception if the script failed
 	 */
-	Object runScript(final String script)
+	Execution runScript(final String script)
+	throws Exception
 	{
-		return this.jexl.createScript(script)
-			.execute(this.createContext())
-		;
+		return this.submit(AD_HOC, () ->
+		{
+			final long       start    = System.nanoTime();
+			final JexlScript compiled = this.jexl.createScript(script);
+			return this.execute(compiled, System.nanoTime() - start);
+		});
 	}
 
+	/**
+	 * Compiles a script once and registers it with an id, replacing an existing script with the same id.
+	 *
+	 * @param id the id of the script
+	 * @param script the script to compile
+	 * @param parameters the names of the script's parameters
+	 * @return the time spent compiling the script in nanoseconds
+	 */
+	long prepareScript(
+		final String       id        ,
+		final String       script    ,
+		final List<String> parameters
+	)
+	{
+		final long start = System.nanoTime();
+		this.preparedScripts.put(
+			id,
+			this.jexl.createScript(script, parameters.toArray(new String[parameters.size()]))
+		);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Executes a script registered by {@link #prepareScript(String, String, List)} and returns the result.
+	 *
+	 * @param id the id of the script
+	 * @param arguments the arguments by parameter name, missing ones are <code>null</code>
+	 * @return the script's result, serialized as JSON
+	 * @throws IllegalArgumentException if no script with the id is registered
+	 * @throws RejectedExecutionException if too many scripts are running
+	 * @throws TimeoutException if the script exceeded the timeout
+	 * @throws Exception if the script failed
+	 */
+	Execution runPreparedScript(
+		final String              id       ,
+		final Map<String, Object> arguments
+	)
+	throws Exception
+	{
+		final JexlScript script = this.preparedScripts.get(id);
+		if(script == null)
+		{
+			throw new IllegalArgumentException("Unknown script: " + id);
+		}
+		final String[] parameters = script.getParameters();
+		final Object[] values     = parameters == null
+			? new Object[0]
+			: Arrays.stream(parameters).map(arguments::get).toArray();
+		return this.submit(id, () -> this.execute(script, 0L, values));
+	}
+
+	/**
+	 * Removes a script registered by {@link #prepareScript(String, String, List)}.
+	 *
+	 * @param id the id of the script
+	 * @return <code>true</code> if the script was registered
+	 */
+	boolean removePreparedScript(final String id)
+	{
+		return this.preparedScripts.remove(id) != null;
+	}
+
+	/**
+	 * @return the ids of all registered scripts, sorted
+	 */
+	List<String> preparedScriptIds()
+	{
+		final List<String> ids = new ArrayList<>(this.preparedScripts.keySet());
+		ids.sort(null);
+		return ids;
+	}
+
+	/**
+	 * Gets a snapshot of the metrics of all scripts which were executed.
+	 *
+	 * @return the metrics, indexed by the script id, or {@link #AD_HOC}
+	 */
+	Map<String, Metrics> metrics()
+	{
+		final Map<String, Metrics> metrics = new TreeMap<>();
+		this.statistics.forEach((id, statistics) -> metrics.put(id, statistics.metrics()));
+		return metrics;
+	}
+
+	@Override
+	public void destroy()
+	{
+		this.executor.shutdownNow();
+	}
+
+	private Execution submit(
+		final String              id  ,
+		final Callable<Execution> task
+	)
+	throws Exception
+	{
+		final Statistics        statistics = this.statistics.computeIfAbsent(id, i -> new Statistics());
+		final Deadline          deadline   = Deadline.after(this.timeoutMillis);
+		final Future<Execution> future;
+		try
+		{
+			future = this.executor.submit(() ->
+			{
+				final long cpuStart  = this.currentThreadCpuTime();
+				final long wallStart = System.nanoTime();
+				try
+				{
+					final Execution execution = Deadline.call(deadline, task);
+					final long      cpuNanos  = this.currentThreadCpuTime() - cpuStart;
+					statistics.executed(cpuNanos, System.nanoTime() - wallStart, false);
+					return new Execution(
+						execution.result,
+						execution.compileNanos,
+						execution.executeNanos,
+						cpuNanos
+					);
+				}
+				catch(final Exception e)
+				{
+					statistics.executed(this.currentThreadCpuTime() - cpuStart, System.nanoTime() - wallStart, true);
+					throw e;
+				}
+			});
+		}
+		catch(final RejectedExecutionException e)
+		{
+			statistics.rejected();
+			throw new RejectedExecutionException("Too many scripts are running, try again later");
+		}
+
+		try
+		{
+			return this.timeoutMillis > 0
+				? future.get(this.timeoutMillis, TimeUnit.MILLISECONDS)
+				: future.get();
+		}
+		catch(final TimeoutException e)
+		{
+			future.cancel(true);
+			statistics.timedOut();
+			throw new TimeoutException("Script aborted after " + this.timeoutMillis + " ms");
+		}
+		catch(final InterruptedException e)
+		{
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+		catch(final ExecutionException e)
+		{
+			throw e.getCause() instanceof Exception
+				? (Exception)e.getCause()
+				: e;
+		}
+	}
+
+	private Execution execute(
+		final JexlScript script      ,
+		final long       compileNanos,
+		final Object...  arguments
+	)
+	throws IOException
+	{
+		final long   start  = System.nanoTime();
+		final Object result = script.execute(new ScriptContext(this.ensureSharedVariables(), this.faker.get()), arguments);
+
+		final LimitedOutputStream output = new LimitedOutputStream(this.maxResultSize);
+		this.objectMapper.writeValue(output, result);
+		return new Execution(
+			output.toByteArray(),
+			compileNanos,
+			System.nanoTime() - start,
+			0L
+		);
+	}
+
+	private long currentThreadCpuTime()
+	{
+		return this.threadMXBean.isCurrentThreadCpuTimeSupported()
+			? this.threadMXBean.getCurrentThreadCpuTime()
+			: 0L;
+	}
 
-	private MapContext createContext()
+	private Map<String, Object> ensureSharedVariables()
 	{
-		final MapContext context = new MapContext();
-		// expose the data root object
-		context.set("data", BookStoreDemo.getInstance().data());
-		// expose the demo instance
-		context.set("demo", BookStoreDemo.getInstance());
-		// expose a faker instance
-		context.set("faker", Faker.instance());
-		return context;
+		/*
+		 * Double-checked locking to reduce the overhead of acquiring a lock
+		 * by testing the locking criterion.
+		 * The field (this.sharedVariables) has to be volatile.
+		 */
+		Map<String, Object> sharedVariables = this.sharedVariables;
+		if(sharedVariables == null)
+		{
+			synchronized(this)
+			{
+				if((sharedVariables = this.sharedVariables) == null)
+				{
+					sharedVariables = this.sharedVariables = Map.of(
+						// expose the data root object
+						"data", BookStoreDemo.getInstance().data(),
+						// expose the demo instance
+						"demo", BookStoreDemo.getInstance()
+					);
+				}
+			}
+		}
+		return sharedVariables;
 	}
 }
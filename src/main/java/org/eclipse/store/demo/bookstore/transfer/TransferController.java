@@ -0,0 +1,188 @@
+package org.eclipse.store.demo.bookstore.transfer;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.store.demo.bookstore.BookStoreDemo;
+import org.eclipse.store.demo.bookstore.data.Country;
+import org.eclipse.store.demo.bookstore.data.DataExport;
+import org.eclipse.store.demo.bookstore.data.DataImport;
+import org.rapidpm.dependencies.core.logger.HasLogger;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.google.common.collect.Range;
+
+
+/**
+ * REST controller which exposes POST /data/import/{type} to import books, shops, inventory, customers or purchases,
+ * and GET /data/export/{type} to export purchases, books or customers.
+ * <p>
+ * The request body is streamed into the {@link DataImport}, and the {@link DataExport} is streamed into the response body,
+ * so the size of the transferred data is not limited by the heap.
+ * <p>
+ * Invalid requests, like an unknown type or format, are answered with status 400.
+ * If an import fails after it has started, it is answered with status 500,
+ * along with the result of the records which were imported before the failure.
+ */
+
+@RestController
+@RequestMapping("/data")
+public class TransferController implements HasLogger
+{
+	private final BookStoreDemo bookStoreDemo;
+
+	TransferController(final BookStoreDemo bookStoreDemo)
+	{
+		super();
+		this.bookStoreDemo = bookStoreDemo;
+	}
+
+	@PostMapping(
+		value    = "/import/{type}",
+		produces = MediaType.APPLICATION_JSON_VALUE
+	)
+	Object importData(
+		@PathVariable                       final String      type  ,
+		@RequestParam(defaultValue = "csv") final String      format,
+		                                    final InputStream body
+	)
+	{
+		this.logger().info("Import request: " + type + " as " + format);
+
+		final DataImport.Type   importType;
+		final DataImport.Format importFormat;
+		try
+		{
+			importType   = DataImport.Type.ofName(type);
+			importFormat = DataImport.Format.ofName(format);
+		}
+		catch(final IllegalArgumentException e)
+		{
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+
+		try(final BufferedReader reader = new BufferedReader(
+			new InputStreamReader(body, StandardCharsets.UTF_8),
+			1 << 16
+		))
+		{
+			return ResponseEntity.ok(
+				new DataImport(this.bookStoreDemo.data()).run(importType, importFormat, reader)
+			);
+		}
+		catch(final DataImport.FailedException e)
+		{
+			final Map<String, Object> failure = new LinkedHashMap<>();
+			failure.put("error",  e.getMessage());
+			failure.put("result", e.result());
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(failure);
+		}
+		catch(final Exception e)
+		{
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+		}
+	}
+
+	@GetMapping("/export/{type}")
+	ResponseEntity<?> exportData(
+		@PathVariable                                     final String  type       ,
+		@RequestParam(defaultValue = "csv")               final String  format     ,
+		@RequestParam(required = false)                   final Integer from       ,
+		@RequestParam(required = false)                   final Integer to         ,
+		@RequestParam(name = "country", required = false) final String  countryCode
+	)
+	{
+		this.logger().info("Export request: " + type + " as " + format);
+
+		final DataExport.Type   exportType;
+		final DataExport.Format exportFormat;
+		try
+		{
+			exportType   = DataExport.Type.ofName(type);
+			exportFormat = DataExport.Format.ofName(format);
+		}
+		catch(final IllegalArgumentException e)
+		{
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+
+		Country country = null;
+		if(countryCode != null)
+		{
+			country = this.bookStoreDemo.data().countries().ofCode(countryCode);
+			if(country == null)
+			{
+				return ResponseEntity.badRequest().body("Country not found: " + countryCode);
+			}
+		}
+
+		final Range<Integer>        years       = years(from, to);
+		final Country               shopCountry = country;
+		final DataExport            export      = new DataExport(this.bookStoreDemo.data());
+		final StreamingResponseBody body        = output ->
+		{
+			if(exportType == DataExport.Type.PURCHASES)
+			{
+				export.exportPurchases(years, shopCountry, exportFormat, output);
+			}
+			else
+			{
+				export.export(exportType, exportFormat, output);
+			}
+		};
+
+		return ResponseEntity.ok()
+			.header(HttpHeaders.CONTENT_TYPE, exportFormat.contentType())
+			.header(
+				HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=\"" + exportType.name().toLowerCase(Locale.ROOT) + "." + exportFormat.name().toLowerCase(Locale.ROOT) + "\""
+			)
+			.body(body);
+	}
+
+	private static Range<Integer> years(
+		final Integer from,
+		final Integer to
+	)
+	{
+		if(from != null)
+		{
+			return to != null
+				? Range.closed(from, to)
+				: Range.atLeast(from);
+		}
+		return to != null
+			? Range.atMost(to)
+			: Range.all();
+	}
+
+}
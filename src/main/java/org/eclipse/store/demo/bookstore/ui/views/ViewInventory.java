@@ -20,6 +20,7 @@ import org.eclipse.store.demo.bookstore.BookStoreDemo;
 import org.eclipse.store.demo.bookstore.data.Book;
 import org.eclipse.store.demo.bookstore.data.InventoryItem;
 import org.eclipse.store.demo.bookstore.data.Shop;
+import org.eclipse.store.demo.bookstore.data.Shops;
 
 import com.vaadin.flow.function.SerializableFunction;
 import com.vaadin.flow.router.Route;
@@ -59,7 +60,25 @@ public class ViewInventory extends ViewEntity<InventoryItem>
 
 	@Override
 	public <R> R compute(final SerializableFunction<Stream<InventoryItem>, R> function) {
-		return BookStoreDemo.getInstance().data().shops().computeInventory(function);
+		final Shops shops = BookStoreDemo.getInstance().data().shops();
+		/*
+		 * Use the pre-filtered lookups if possible, the filter predicates are applied anyways.
+		 */
+		final Book book = this.bookFilter != null
+			? this.bookFilter.getValue()
+			: null;
+		if(book != null)
+		{
+			return shops.computeInventoryOf(book, function);
+		}
+		final Shop shop = this.shopFilter != null
+			? this.shopFilter.getValue()
+			: null;
+		if(shop != null)
+		{
+			return shops.computeInventoryOf(shop, function);
+		}
+		return shops.computeInventory(function);
 	}
 
 }
@@ -0,0 +1,155 @@
+package org.eclipse.store.demo.bookstore.util;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal CSV utilities, following RFC 4180 with a comma as separator.
+ * Quoted fields may contain commas, escaped quotes and line breaks,
+ * records with line breaks are read with {@link #readRecord(BufferedReader)}.
+ *
+ */
+public interface CsvUtils
+{
+	/**
+	 * Reads the next record of a CSV source. If a quoted field contains line breaks,
+	 * the record spans multiple lines, which are joined with <code>\n</code>.
+	 *
+	 * @param reader the source
+	 * @return the record, or <code>null</code> at the end of the source
+	 * @throws IOException if the source cannot be read
+	 */
+	public static String readRecord(final BufferedReader reader) throws IOException
+	{
+		String line = reader.readLine();
+		if(line == null || !hasOddQuotes(line))
+		{
+			return line;
+		}
+
+		/*
+		 * Escaped quotes come in pairs, so an odd amount of quotes leaves a quoted field open.
+		 */
+		final StringBuilder record = new StringBuilder(line);
+		boolean             open   = true;
+		while(open && (line = reader.readLine()) != null)
+		{
+			record.append('\n').append(line);
+			open ^= hasOddQuotes(line);
+		}
+		return record.toString();
+	}
+
+	private static boolean hasOddQuotes(final String line)
+	{
+		boolean odd = false;
+		for(int i = 0; i < line.length(); i++)
+		{
+			if(line.charAt(i) == '"')
+			{
+				odd = !odd;
+			}
+		}
+		return odd;
+	}
+
+	/**
+	 * Splits a CSV record into its fields.
+	 *
+	 * @param line the record to parse, see {@link #readRecord(BufferedReader)}
+	 * @return the unquoted fields
+	 * @throws IllegalArgumentException if a quoted field isn't closed
+	 */
+	public static List<String> parseLine(final String line)
+	{
+		final List<String>  fields = new ArrayList<>();
+		final StringBuilder field  = new StringBuilder();
+		boolean             quoted = false;
+		for(int i = 0; i < line.length(); i++)
+		{
+			final char c = line.charAt(i);
+			if(quoted)
+			{
+				if(c == '"')
+				{
+					if(i + 1 < line.length() && line.charAt(i + 1) == '"')
+					{
+						field.append('"');
+						i++;
+					}
+					else
+					{
+						quoted = false;
+					}
+				}
+				else
+				{
+					field.append(c);
+				}
+			}
+			else if(c == '"')
+			{
+				quoted = true;
+			}
+			else if(c == ',')
+			{
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else
+			{
+				field.append(c);
+			}
+		}
+		if(quoted)
+		{
+			throw new IllegalArgumentException("Unterminated quoted field");
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Joins fields to a CSV line. Fields containing a comma, a quote or a line break are quoted.
+	 *
+	 * @param fields the fields to join
+	 * @return the CSV line, without line separator
+	 */
+	public static String formatLine(final List<String> fields)
+	{
+		final StringBuilder line = new StringBuilder(fields.size() * 16);
+		for(int i = 0; i < fields.size(); i++)
+		{
+			if(i > 0)
+			{
+				line.append(',');
+			}
+			final String field = fields.get(i);
+			if(field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0)
+			{
+				line.append('"').append(field.replace("\"", "\"\"")).append('"');
+			}
+			else
+			{
+				line.append(field);
+			}
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,162 @@
+package org.eclipse.store.demo.bookstore.util;
+
+/*-
+ * #%L
+ * EclipseStore BookStore Demo
+ * %%
+ * Copyright (C) 2023 MicroStream Software
+ * %%
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ * 
+ * SPDX-License-Identifier: EPL-2.0
+ * #L%
+ */
+
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+/**
+ * Point in time after which a computation has to be aborted.
+ * <p>
+ * A deadline is bound to the current thread with {@link #call(Deadline, Callable)}.
+ * Long running computations pick it up with {@link #current()} and {@link #check()} it regularly,
+ * e.g. with {@link #guard(Stream)}, which also works for parallel streams, since the deadline is captured
+ * by the stream's operations and not looked up in the worker threads.
+ * <p>
+ * This type is immutable and therefor inherently thread safe.
+ */
+public final class Deadline
+{
+	/**
+	 * Thrown by {@link Deadline#check()} if the deadline has passed.
+	 */
+	public static class ExceededException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		ExceededException(final String message)
+		{
+			super(message);
+		}
+	}
+
+
+	/**
+	 * Deadline which never passes.
+	 */
+	public final static Deadline NONE = new Deadline(Long.MAX_VALUE, 0L);
+
+	private final static ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	/**
+	 * Creates a deadline which passes after the given timeout, starting now.
+	 *
+	 * @param timeoutMillis the timeout in milliseconds, 0 or less for no timeout
+	 * @return the new deadline
+	 */
+	public static Deadline after(final long timeoutMillis)
+	{
+		return timeoutMillis <= 0
+			? NONE
+			: new Deadline(System.nanoTime() + timeoutMillis * 1_000_000L, timeoutMillis);
+	}
+
+	/**
+	 * @return the deadline bound to the current thread, or {@link #NONE}
+	 */
+	public static Deadline current()
+	{
+		final Deadline deadline = CURRENT.get();
+		return deadline != null
+			? deadline
+			: NONE;
+	}
+
+	/**
+	 * Executes a computation with a deadline bound to the current thread.
+	 *
+	 * @param <T> the result type
+	 * @param deadline the deadline
+	 * @param computation the computation
+	 * @return the result of the computation
+	 * @throws Exception if the computation fails
+	 */
+	public static <T> T call(
+		final Deadline    deadline   ,
+		final Callable<T> computation
+	)
+	throws Exception
+	{
+		final Deadline previous = CURRENT.get();
+		CURRENT.set(deadline);
+		try
+		{
+			return computation.call();
+		}
+		finally
+		{
+			if(previous == null)
+			{
+				CURRENT.remove();
+			}
+			else
+			{
+				CURRENT.set(previous);
+			}
+		}
+	}
+
+
+	private final long nanos        ;
+	private final long timeoutMillis;
+
+	private Deadline(
+		final long nanos        ,
+		final long timeoutMillis
+	)
+	{
+		super();
+		this.nanos         = nanos        ;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @return <code>true</code> if this deadline has passed
+	 */
+	public boolean exceeded()
+	{
+		return this != NONE && System.nanoTime() - this.nanos > 0;
+	}
+
+	/**
+	 * Aborts the current computation if this deadline has passed.
+	 *
+	 * @throws ExceededException if this deadline has passed
+	 */
+	public void check()
+	{
+		if(this.exceeded())
+		{
+			throw new ExceededException("Computation aborted after " + this.timeoutMillis + " ms");
+		}
+	}
+
+	/**
+	 * Guards a stream with the {@link #current()} deadline.
+	 * Every element checks the deadline, so the terminal operation is aborted once it has passed.
+	 *
+	 * @param <T> the element type
+	 * @param stream the stream to guard
+	 * @return the guarded stream, or the given one if there is no deadline
+	 */
+	public static <T> Stream<T> guard(final Stream<T> stream)
+	{
+		final Deadline deadline = current();
+		return deadline == NONE
+			? stream
+			: stream.peek(element -> deadline.check());
+	}
+
+}